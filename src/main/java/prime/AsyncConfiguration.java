@@ -0,0 +1,93 @@
+package prime;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.Callable;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.filter.GenericFilterBean;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Configuration of the asynchronous request processing of {@link PrimeController}.
+ *
+ * Streaming response bodies are written on the compute executor of the controller instead of an unbounded
+ * executor of Spring MVC, so they are limited by the same threads and queue as the other requests and rejected
+ * with 503 (Service Unavailable) status when it is saturated.
+ *
+ * Without an explicit timeout the timeout of the servlet container applies (30 seconds in Tomcat). The requests
+ * get the timeout given by 'prime.request.timeout.seconds' property (default 600 seconds), after which they fail
+ * with 503 status and their computations are cancelled, so they do not keep the compute threads busy.
+ * The streaming responses get the timeout given by 'prime.stream.timeout.seconds' property (default 0,
+ * i.e. unlimited), since a response can not be replaced by an error once its first part is sent.
+ * For the same reason a streaming response failed after its first part is aborted, i.e. its connection is closed
+ * without ending the response, instead of appending the error page to it.
+ */
+@Configuration
+public class AsyncConfiguration extends WebMvcConfigurerAdapter {
+    @Autowired
+    private PrimeController controller;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new TaskExecutorAdapter(controller.getExecutor()));
+        configurer.setDefaultTimeout(controller.getRequestTimeoutMillis());
+        // the controller returns futures for the computed results, so the only callables are the streaming bodies
+        configurer.registerCallableInterceptors(new CallableProcessingInterceptorAdapter() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                ((AsyncWebRequest)request).setTimeout(controller.getStreamTimeoutMillis());
+            }
+        });
+        // the computed results are adapted to deferred results, whose timeout leaves the computation running
+        configurer.registerDeferredResultInterceptors(new DeferredResultProcessingInterceptorAdapter() {
+            @Override
+            public <T> boolean handleTimeout(NativeWebRequest request, DeferredResult<T> deferredResult) {
+                controller.cancelComputation(request);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Filter of the error page that fails when the response is committed already. Once the error page can not be
+     * included, Tomcat closes the connection of the failed response, so the client sees a truncated response
+     * rather than a complete one with the error in the middle of the data.
+     * @param errorPath path of the error page
+     * @return filter registration
+     */
+    @Bean
+    public FilterRegistrationBean committedResponseErrorFilter(
+            @Value("${server.error.path:${error.path:/error}}") String errorPath) {
+        Filter filter = new GenericFilterBean() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                    throws IOException, ServletException {
+                if (response.isCommitted())
+                    throw new IOException("Response is committed, the error is not reported");
+                chain.doFilter(request, response);
+            }
+        };
+        FilterRegistrationBean registration = new FilterRegistrationBean(filter);
+        registration.addUrlPatterns(errorPath);
+        registration.setDispatcherTypes(EnumSet.of(DispatcherType.ERROR, DispatcherType.INCLUDE));
+        return registration;
+    }
+}
@@ -1,101 +1,406 @@
 package prime;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import prime.generator.PrimeSequence;
+import prime.generator.WheelBitmap;
 
 /**
  * Implements a cache of prime numbers using a {@link java.util.concurrent.ConcurrentSkipListMap}.
  *
- * The cache is a continuously growing set of prime numbers. The cache maintains prime numbers for multiple ranges.
- * Read access is fully concurrent, cache updates are mutually exclusive to ensure data integrity. In order to
- * maintain sets of prime numbers for unique ranges only each cache update involves cache normalisation which
- * involves merging overlapping ranges of prime numbers.
+ * The cache maintains prime numbers for multiple non-overlapping ranges. Read access is lock-free (including
+ * the access statistics, see {@link FrequencySketch}), cache updates are mutually exclusive to ensure data
+ * integrity. Each update only stores the parts of the new range not cached yet, so it never copies the cached
+ * ranges it overlaps. Each new part is coalesced with the adjacent cached ranges as long as they are not larger
+ * than the part merged so far, like the carries of a binary counter: a single update copies at most the ranges
+ * it is coalesced with, the amortized cost is O(log n) copies of each cached byte, and a run of adjacent updates
+ * (e.g. the gaps filled by the controller) ends up in O(log n) ranges rather than one range per update.
+ * A lookup that finds a gap while an update is in progress is repeated once, since the update may have replaced
+ * a range the lookup was about to visit. If an update overlaps the repeated lookup too, its gaps are returned as
+ * they are: a missed range only costs its regeneration, while repeating without a bound could starve under steady
+ * updates.
+ *
+ * Prime numbers of each range are stored as a {@link WheelBitmap}, i.e. a sieve bitmap of the numbers coprime
+ * to 30 using 8 bits per 30 numbers regardless of the density of primes. Compared to storing the primes
+ * themselves this takes about 25 times less memory at 10^6 and about 70 times less at 10^18. Primes 2, 3 and 5
+ * are not stored in the bitmaps, they are added to the result whenever they are in the requested range.
  *
- * This is an imperfect implementation that requires data copy during cache normalization.
+ * The total size of the bitmaps is limited ('prime.cache.maxBytes' in prime_controller.properties, default 40MB).
+ * When a new range does not fit, the least recently used ranges are evicted. To prevent a one-off large range from
+ * flushing frequently used ones, the new range is only admitted if the frequency of its requests (estimated by
+ * {@link FrequencySketch}) is greater than the frequency of hits of each range that would be evicted (TinyLFU).
+ * The sketch counts the requests per aligned block of {@link #FREQUENCY_BLOCK_SIZE} numbers rather than per range,
+ * since the ranges added to the cache are rarely the ones requested (e.g. only the gaps of a request are generated,
+ * in parts): the frequency of a new range is the lowest frequency of the blocks it touches. Only the first
+ * {@link #MAX_RECORDED_BLOCKS} blocks of a request are counted, so very wide ranges are not admitted by frequency.
+ * The hit counters of the ranges are halved lazily whenever they are read or updated after the sketch has been
+ * halved, so aging never walks the cached ranges.
  *
  * This class is thread-safe.
  */
 public class ConcurrentRangePrimeCache implements PrimeCache {
-    private static final int MAX_CACHE_SIZE = 1_000_000;
+    private static final long DEFAULT_MAX_CACHE_BYTES = 40L << 20;
+    private static final int MAX_FREQUENCY = 15;
+    private static final int MAX_LOOKUP_ATTEMPTS = 2;
+    /**
+     * Size of the aligned blocks whose requests are counted by the frequency sketch.
+     */
+    static final long FREQUENCY_BLOCK_SIZE = 1L << 16;
+    /**
+     * The largest number of blocks counted per request.
+     */
+    static final long MAX_RECORDED_BLOCKS = 4096;
 
-    private final Map<Range, SortedSet<Long>> ranges = new ConcurrentSkipListMap<>();
+    private final ConcurrentNavigableMap<Range, Entry> ranges = new ConcurrentSkipListMap<>();
     private final Object rangeUpdateLock = new Object();
-    private int currentCacheSize;
+    private final long maxCacheBytes;
+    private final FrequencySketch sketch = new FrequencySketch(1 << 16);
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private long currentCacheBytes;
+    // incremented before and after each update, i.e. odd while an update is in progress
+    private volatile long version;
+
+    /**
+     * Construct cache with the default limit of 40MB.
+     */
+    public ConcurrentRangePrimeCache() {
+        this(DEFAULT_MAX_CACHE_BYTES);
+    }
 
+    /**
+     * Construct cache with the given limit.
+     * @param maxCacheBytes maximum total size of the cached bitmaps in bytes
+     */
+    public ConcurrentRangePrimeCache(long maxCacheBytes) {
+        if (maxCacheBytes <= 0)
+            throw new IllegalArgumentException("Cache size must be greater than zero");
+        this.maxCacheBytes = maxCacheBytes;
+    }
 
     @Override
-    public void addAll(long from, long to, List<Long> primes) {
+    public void addAll(long from, long to, PrimeSequence primes) {
         if (primes.isEmpty())
             return;
 
-        SortedSet<Long> primeSet = new TreeSet<>(primes);
+        long bytes = WheelBitmap.bytesFor(Math.max(from, 0), to);
+        if (bytes > maxCacheBytes) {
+            rejections.increment();
+            return;
+        }
+
+        Range range = new Range(from, to);
         synchronized (rangeUpdateLock) {
-            if (primes.size() + currentCacheSize > MAX_CACHE_SIZE)
+            List<Range> parts = uncachedParts(from, to);
+            if (parts.isEmpty())
                 return;
+            long requiredBytes = currentCacheBytes - maxCacheBytes;
+            for (Range part : parts)
+                requiredBytes += WheelBitmap.bytesFor(Math.max(part.getFrom(), 0), part.getTo());
 
-            ranges.put(new Range(from, to), primeSet);
-            if (ranges.size() > 1)
-                normalizeRanges(); // merge overlapping ranges
-            else
-                currentCacheSize = primeSet.size();
-        }
-    }
-
-    private void normalizeRanges() {
-        List<Range> rangeList = new ArrayList<>(ranges.keySet());
-        Map<Range, SortedSet<Long>> newMap = new TreeMap<>();
-        currentCacheSize = 0;
-        for (int i = 0; i < rangeList.size(); ) {
-            Range left = rangeList.get(i);
-            long rangeEnd = left.getTo();
-            SortedSet<Long> rangePrimes = new TreeSet<>(ranges.get(left));
-            if (i < rangeList.size() - 1) {
-                for (int j = i + 1; j < rangeList.size(); j++) {
-                    Range right = rangeList.get(j);
-                    if (right.getFrom() <= rangeEnd) { // merge overlapping ranges
-                        if (right.getTo() > rangeEnd)
-                            rangePrimes.addAll(ranges.get(right));
-                        rangeEnd = right.getTo();
-                        i = j + 1;
-                    } else {
-                        i = j;
-                        break;
-                    }
+            version++;
+            try {
+                // the parts overlapping an evicted range are stored as they are, the rest of it becomes a gap
+                if (requiredBytes > 0 && !evict(range, requiredBytes)) {
+                    rejections.increment();
+                    return;
                 }
-            } else {
-                ++i;
+
+                long now = clock.incrementAndGet();
+                long resets = sketch.getResets();
+                for (Range part : parts) {
+                    WheelBitmap bitmap = WheelBitmap.of(part.getFrom(), part.getTo(),
+                            primes.subSequence(part.getFrom(), part.getTo()));
+                    merge(part, new Entry(bitmap, now, 0, resets));
+                }
+            } finally {
+                version++;
             }
-            newMap.put(new Range(left.getFrom(), rangeEnd), rangePrimes);
-            currentCacheSize += rangePrimes.size();
         }
-        ranges.clear();
-        ranges.putAll(newMap);
     }
 
+    /**
+     * Find the parts of the given range not covered by the cached ranges.
+     */
+    private List<Range> uncachedParts(long from, long to) {
+        List<Range> parts = new ArrayList<>();
+        long partStart = from;
+        Range floor = ranges.floorKey(new Range(from, Long.MAX_VALUE));
+        Set<Range> candidates = floor == null ? ranges.keySet() : ranges.tailMap(floor, true).keySet();
+        for (Range range : candidates) {
+            if (range.getTo() < partStart)
+                continue;
+            if (range.getFrom() > to)
+                break;
+            if (range.getFrom() > partStart)
+                parts.add(new Range(partStart, range.getFrom() - 1));
+            if (range.getTo() >= to)
+                return parts;
+            partStart = range.getTo() + 1;
+        }
+        parts.add(new Range(partStart, to));
+        return parts;
+    }
+
+    /**
+     * Evict the least recently used ranges to free the given number of bytes for the given range, unless one
+     * of them is used more frequently than the new range is requested.
+     * @return true if the bytes were freed
+     */
+    private boolean evict(Range range, long requiredBytes) {
+        List<Map.Entry<Range, Entry>> candidates = new ArrayList<>(ranges.entrySet());
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+        int frequency = frequency(range);
+        long resets = sketch.getResets();
+        List<Range> victims = new ArrayList<>();
+        long freedBytes = 0;
+        for (Map.Entry<Range, Entry> e : candidates) {
+            if (freedBytes >= requiredBytes)
+                break;
+            if (e.getValue().frequency(resets) >= frequency)
+                return false;
+            victims.add(e.getKey());
+            freedBytes += e.getValue().bitmap.getLength();
+        }
+
+        for (Range victim : victims)
+            ranges.remove(victim);
+        currentCacheBytes -= freedBytes;
+        evictions.add(victims.size());
+        return true;
+    }
+
+    /**
+     * Publish the given range, which does not overlap any cached range, coalesced with the adjacent cached ranges
+     * that are not larger than the range merged so far. The merged range is published before the adjacent ranges
+     * are removed, so concurrent readers never miss any cached primes (they may see both for a moment, which is fine
+     * since the overlapping parts contain the same primes).
+     */
+    private void merge(Range range, Entry entry) {
+        long mergedFrom = range.getFrom();
+        long mergedTo = range.getTo();
+        long mergedBytes = entry.bitmap.getLength();
+        List<Map.Entry<Range, Entry>> adjacent = new ArrayList<>();
+        for (boolean coalesced = true; coalesced; ) {
+            coalesced = false;
+            Map.Entry<Range, Entry> lower = mergedFrom == Long.MIN_VALUE ? null
+                    : ranges.lowerEntry(new Range(mergedFrom, Long.MIN_VALUE));
+            if (lower != null && lower.getKey().getTo() == mergedFrom - 1
+                    && lower.getValue().bitmap.getLength() <= mergedBytes) {
+                adjacent.add(lower);
+                mergedFrom = lower.getKey().getFrom();
+                mergedBytes += lower.getValue().bitmap.getLength();
+                coalesced = true;
+            }
+            Map.Entry<Range, Entry> higher = mergedTo == Long.MAX_VALUE ? null
+                    : ranges.ceilingEntry(new Range(mergedTo + 1, Long.MIN_VALUE));
+            if (higher != null && higher.getKey().getFrom() == mergedTo + 1
+                    && higher.getValue().bitmap.getLength() <= mergedBytes) {
+                adjacent.add(higher);
+                mergedTo = higher.getKey().getTo();
+                mergedBytes += higher.getValue().bitmap.getLength();
+                coalesced = true;
+            }
+        }
+        if (adjacent.isEmpty()) {
+            ranges.put(range, entry);
+            currentCacheBytes += entry.bitmap.getLength();
+            return;
+        }
+
+        long lastAccess = entry.lastAccess;
+        long resets = sketch.getResets();
+        int frequency = entry.frequency(resets);
+        for (Map.Entry<Range, Entry> e : adjacent) {
+            lastAccess = Math.max(lastAccess, e.getValue().lastAccess);
+            frequency = Math.max(frequency, e.getValue().frequency(resets));
+        }
+
+        // all ranges are complete so the merged bitmap is the union of the bitmaps
+        long start = Math.max(mergedFrom, 0);
+        int length = (int)WheelBitmap.bytesFor(start, mergedTo);
+        WheelBitmap bitmap = new WheelBitmap(start - start % WheelBitmap.WHEEL_SIZE, length,
+                new long[(length + 7) >>> 3]);
+        bitmap.or(entry.bitmap);
+        for (Map.Entry<Range, Entry> e : adjacent)
+            bitmap.or(e.getValue().bitmap);
+
+        ranges.put(new Range(mergedFrom, mergedTo), new Entry(bitmap, lastAccess, frequency, resets));
+        currentCacheBytes += length;
+        for (Map.Entry<Range, Entry> e : adjacent) {
+            ranges.remove(e.getKey(), e.getValue());
+            currentCacheBytes -= e.getValue().bitmap.getLength();
+        }
+    }
 
     @Override
-    public List<Long> getPrimes(long from, long to) {
-        Stream<Long> stream = getPrimeNumberStream(from, to);
-        return stream == null ? null : stream.collect(Collectors.toList());
+    public PrimeCacheLookup lookup(long from, long to) {
+        List<Entry> used = new ArrayList<>();
+        for (int attempt = 1; ; attempt++) {
+            long startVersion = version;
+            PrimeCacheLookup lookup = find(from, to, used);
+            // a range replaced by a concurrent merge may be missed, so the gaps are only reliable if there was none
+            if (lookup.isComplete() || (startVersion & 1) == 0 && startVersion == version
+                    || attempt == MAX_LOOKUP_ATTEMPTS) {
+                recordAccess(from, to, lookup, used);
+                return lookup;
+            }
+            used.clear();
+        }
     }
 
-    private Stream<Long> getPrimeNumberStream(long from, long to) {
+    private PrimeCacheLookup find(long from, long to, List<Entry> used) {
+        PrimeCacheLookup lookup = new PrimeCacheLookup();
         long rangeStart = from;
-        Stream<Long> primes = Stream.empty();
-        for (Map.Entry<Range, SortedSet<Long>> e: ranges.entrySet()) {
+        // the last range starting at or before 'from' is the only one that may contain it, the following ranges
+        // are visited in order until 'to'
+        Range floor = ranges.floorKey(new Range(from, Long.MAX_VALUE));
+        Map<Range, Entry> candidates = floor == null ? ranges : ranges.tailMap(floor, true);
+        for (Map.Entry<Range, Entry> e: candidates.entrySet()) {
             Range range = e.getKey();
-            if (rangeStart >= range.getFrom() && rangeStart <= range.getTo()) {
-                long rangeTo = Math.min(to, range.getTo());
-                Stream<Long> subSet = e.getValue().subSet(rangeStart, rangeTo).stream();
-                primes = Stream.concat(primes, subSet);
-                if (to <= range.getTo())
-                    return primes; // all primes found in cache, return success
-                rangeStart = range.getTo() + 1;
+            if (range.getTo() < rangeStart)
+                continue;
+            if (range.getFrom() > to)
+                break;
+            if (range.getFrom() > rangeStart) {
+                lookup.addGap(rangeStart, range.getFrom() - 1);
+                rangeStart = range.getFrom();
             }
+            long rangeTo = Math.min(to, range.getTo());
+            // the bitmaps are never modified, a merge replaces them, so they are decoded lazily
+            WheelBitmap bitmap = e.getValue().bitmap;
+            lookup.addCached(rangeStart, rangeTo, (partFrom, partTo, primes) -> {
+                // primes 2, 3 and 5 are not stored in the bitmaps
+                WheelBitmap.appendWheelPrimes(partFrom, partTo, primes);
+                bitmap.appendTo(partFrom, partTo, primes);
+            });
+            used.add(e.getValue());
+            if (rangeTo == to)
+                return lookup;
+            rangeStart = rangeTo + 1;
         }
-        return null;
+        lookup.addGap(rangeStart, to);
+        return lookup;
     }
 
+    /**
+     * Get the estimated frequency of requests for the given range, i.e. the lowest frequency of its blocks.
+     */
+    private int frequency(Range range) {
+        int frequency = MAX_FREQUENCY;
+        // there are no primes below zero, so the blocks start at zero
+        long first = Math.max(range.getFrom(), 0) / FREQUENCY_BLOCK_SIZE;
+        long last = range.getTo() / FREQUENCY_BLOCK_SIZE;
+        for (long block = first; block <= last && frequency > 0; block++)
+            frequency = Math.min(frequency, sketch.frequency(Long.hashCode(block)));
+        return frequency;
+    }
+
+    private void recordAccess(long from, long to, PrimeCacheLookup lookup, List<Entry> used) {
+        if (to >= 0) {
+            long first = Math.max(from, 0) / FREQUENCY_BLOCK_SIZE;
+            long last = Math.min(to / FREQUENCY_BLOCK_SIZE, first + MAX_RECORDED_BLOCKS - 1);
+            for (long block = first; block <= last; block++)
+                sketch.increment(Long.hashCode(block));
+        }
+
+        long now = clock.incrementAndGet();
+        long resets = sketch.getResets();
+        for (Entry entry : used) {
+            entry.lastAccess = now;
+            entry.recordHit(resets);
+        }
+        if (lookup.isComplete())
+            hits.increment();
+        else
+            misses.increment();
+    }
+
+    /**
+     * Get the number of requests fully served from the cache.
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of requests not fully covered by the cache, including partial hits.
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of ranges evicted from the cache.
+     * @return number of evictions
+     */
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the number of ranges that were not admitted to the cache.
+     * @return number of rejections
+     */
+    @Override
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    /**
+     * Get the total size of the cached bitmaps.
+     * @return size in bytes
+     */
+    @Override
+    public long getSize() {
+        synchronized (rangeUpdateLock) {
+            return currentCacheBytes;
+        }
+    }
+
+    /**
+     * Cached bitmap with its access statistics.
+     */
+    private static final class Entry {
+        private final WheelBitmap bitmap;
+        // value of the cache clock at the last hit
+        private volatile long lastAccess;
+        // number of recent hits (the lowest 4 bits) and the number of sketch resets it has been halved for
+        private final AtomicLong hits;
+
+        Entry(WheelBitmap bitmap, long lastAccess, int frequency, long resets) {
+            this.bitmap = bitmap;
+            this.lastAccess = lastAccess;
+            this.hits = new AtomicLong(resets << 4 | frequency);
+        }
+
+        /**
+         * Get the number of recent hits, halved once for each reset of the sketch since the last update.
+         */
+        int frequency(long resets) {
+            return age(hits.get(), resets);
+        }
+
+        void recordHit(long resets) {
+            // a thread that has read an older number of resets must not undo the halving by a newer one
+            hits.updateAndGet(h -> Math.max(resets, h >>> 4) << 4 | Math.min(age(h, resets) + 1, MAX_FREQUENCY));
+        }
+
+        private static int age(long hits, long resets) {
+            long halvings = resets - (hits >>> 4);
+            int frequency = (int)hits & MAX_FREQUENCY;
+            return halvings <= 0 ? frequency : halvings >= 4 ? 0 : frequency >>> halvings;
+        }
+    }
 }
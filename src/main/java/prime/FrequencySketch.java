@@ -0,0 +1,106 @@
+package prime;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min sketch estimating the recent access frequency of keys, as used by TinyLFU cache admission.
+ *
+ * Each key is counted in one 4-bit counter (capped at 15) of each of the 4 rows. The estimate is the minimum
+ * of the counters, so it may overestimate but never underestimates the frequency. In order to prefer recent
+ * accesses, all counters are halved once the number of increments reaches 10 times the width of the sketch.
+ *
+ * The counters are packed 16 per word of an {@link AtomicLongArray} and updated by compare-and-set, so neither
+ * increments nor estimates take a lock. The counters are halved by the thread whose increment reaches the sample
+ * size, word by word, so an increment racing with the halving may or may not be halved.
+ * The number of halvings is exposed by {@link #getResets()}, so other counters may be aged lazily to match.
+ *
+ * This class is thread-safe.
+ */
+class FrequencySketch {
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+    // clears the bit shifted into each counter from the next one when the words are halved
+    private static final long HALF_MASK = 0x7777_7777_7777_7777L;
+
+    // 4-bit counters, 16 per word, row after row
+    private final AtomicLongArray counters;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+    private final AtomicLong resets = new AtomicLong();
+
+    /**
+     * Construct sketch with the given width.
+     * @param width number of counters per row, rounded up to a power of two
+     */
+    FrequencySketch(int width) {
+        int size = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+        counters = new AtomicLongArray(ROWS * size / 16);
+        mask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+    /**
+     * Increment the frequency of the given key.
+     * @param key key hash
+     */
+    void increment(int key) {
+        int estimate = frequency(key);
+        if (estimate < MAX_COUNT) {
+            // conservative update, i.e. only the counters equal to the minimum are incremented
+            for (int i = 0; i < ROWS; i++) {
+                int counter = counter(key, i);
+                int shift = (counter & 15) << 2;
+                long word = counters.get(counter >>> 4);
+                // retried only while other counters of the word change, a concurrent increment of this one wins
+                while (count(word, shift) == estimate
+                        && !counters.compareAndSet(counter >>> 4, word, word + (1L << shift)))
+                    word = counters.get(counter >>> 4);
+            }
+        }
+        // only a single thread reaches the sample size, the others keep counting while it halves the counters
+        if (additions.incrementAndGet() == sampleSize)
+            reset();
+    }
+
+    /**
+     * Get the estimated frequency of the given key.
+     * @param key key hash
+     * @return frequency in range [0..15]
+     */
+    int frequency(int key) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < ROWS; i++) {
+            int counter = counter(key, i);
+            frequency = Math.min(frequency, count(counters.get(counter >>> 4), (counter & 15) << 2));
+        }
+        return frequency;
+    }
+
+    /**
+     * Get the number of times the counters have been halved.
+     * @return number of resets
+     */
+    long getResets() {
+        return resets.get();
+    }
+
+    private void reset() {
+        for (int i = 0; i < counters.length(); i++)
+            counters.updateAndGet(i, word -> (word >>> 1) & HALF_MASK);
+        additions.addAndGet(-sampleSize / 2);
+        resets.incrementAndGet();
+    }
+
+    private static int count(long word, int shift) {
+        return (int)(word >>> shift) & MAX_COUNT;
+    }
+
+    private int counter(int key, int row) {
+        int h = key * SEEDS[row];
+        return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+    }
+}
@@ -0,0 +1,243 @@
+package prime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import prime.generator.PrimeSequence;
+
+/**
+ * Registry of prime number computations in progress, used to coalesce concurrent requests for overlapping ranges
+ * (single-flight).
+ *
+ * The registry keeps the disjoint ranges being computed, ordered by their start. A request registers a computation
+ * only for the parts of its range not in progress already and waits for the computations of the other parts started
+ * by other requests, taking only the primes of its own range from their results. Overlapping requests therefore
+ * compute each number once, even if the ranges are not identical, and a narrow range is computed at its own width
+ * (e.g. a window of a hundred numbers near 10^18 costs a hundred primality tests, not a whole block). A range wider
+ * than {@link #BLOCK_SIZE} is split at multiples of it, so that its parts are computed in parallel and shared
+ * at a finer grain. A computation is removed from the registry once it completes, so the computation should store
+ * its result in cache before returning. If the request that started a computation is cancelled (its thread is
+ * interrupted), the computation fails and the other requests waiting for it compute their parts themselves.
+ *
+ * A request computes all of its own parts before waiting for the parts computed by others, so requests never
+ * wait for each other in a cycle. If a request owns more parts, they are computed in parallel on the given
+ * executor (the compute executor of the controller), the calling thread computes the parts not started by the
+ * executor yet itself. So the request only waits for the parts being computed by other threads, never for
+ * the queued ones, and the parts rejected by a saturated executor are computed as well.
+ *
+ * This class is thread-safe.
+ */
+public class InFlightRegistry {
+    /**
+     * Size of the aligned blocks the ranges wider than a block are split into.
+     */
+    public static final long BLOCK_SIZE = 1L << 20;
+
+    // computations in progress by the start of their range, guarded by itself
+    private final NavigableMap<Long, Flight> inFlight = new TreeMap<>();
+    private final Executor executor;
+    private final LongAdder computations = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+
+    /**
+     * Construct registry computing all parts of a request on the calling thread.
+     */
+    public InFlightRegistry() {
+        this(Runnable::run);
+    }
+
+    /**
+     * Construct registry computing the parts of a request in parallel on the given executor.
+     * @param executor executor of the computations
+     */
+    public InFlightRegistry(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Find all primes in range [from..to] using the given computation for the parts not in progress already.
+     * The computation is called for parts of the requested range, each at most {@link #BLOCK_SIZE} wide.
+     * @param from range start
+     * @param to range end
+     * @param computation computation of primes in the given range
+     * @return sequence of primes
+     */
+    public PrimeSequence generate(long from, long to, BiFunction<Long, Long, PrimeSequence> computation) {
+        // there are no primes below 2, so the parts start at zero at the latest
+        long start = Math.max(from, 0);
+        if (to < start)
+            return new PrimeSequence(0);
+
+        List<Part> parts = new ArrayList<>();
+        List<FutureTask<Void>> tasks = new ArrayList<>();
+        synchronized (inFlight) {
+            if (to - start < BLOCK_SIZE) {
+                register(start, to, computation, parts, tasks);
+            } else {
+                // the end of the last block is Long.MAX_VALUE as the block size is a power of two
+                for (long index = start / BLOCK_SIZE; index <= to / BLOCK_SIZE; index++) {
+                    register(Math.max(start, index * BLOCK_SIZE), Math.min(to, index * BLOCK_SIZE + (BLOCK_SIZE - 1)),
+                            computation, parts, tasks);
+                }
+            }
+        }
+
+        for (int i = 1; i < tasks.size(); i++) {
+            try {
+                executor.execute(tasks.get(i));
+            } catch (RejectedExecutionException e) {
+                // run by the calling thread below
+            }
+        }
+        // does nothing for the tasks started by the executor already, they are waited for by join() below
+        for (FutureTask<Void> task : tasks)
+            task.run();
+
+        int size = 0;
+        List<PrimeSequence> results = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            PrimeSequence primes = join(part, computation);
+            // a computation started by another request may extend beyond the part
+            if (part.flight.from < part.from || part.flight.to > part.to)
+                primes = primes.subSequence(part.from, part.to);
+            results.add(primes);
+            size += primes.size();
+        }
+        if (results.size() == 1)
+            return results.get(0);
+
+        PrimeSequence primes = new PrimeSequence(size);
+        results.forEach(primes::addAll);
+        return primes;
+    }
+
+    /**
+     * Add the parts of range [from..to] to the given list in ascending order: the parts in progress with their
+     * computations, the others with new computations registered in the registry and added to the given tasks.
+     */
+    private void register(long from, long to, BiFunction<Long, Long, PrimeSequence> computation, List<Part> parts,
+                          List<FutureTask<Void>> tasks) {
+        long partStart = from;
+        // the last computation starting at or before 'from' is the only one that may contain it
+        Long floor = inFlight.floorKey(from);
+        for (Flight flight : inFlight.subMap(floor != null ? floor : from, true, to, true).values()) {
+            if (flight.to < partStart)
+                continue;
+            if (flight.from > partStart)
+                parts.add(new Part(partStart, flight.from - 1, start(partStart, flight.from - 1, computation, tasks)));
+            long partEnd = Math.min(flight.to, to);
+            parts.add(new Part(Math.max(partStart, flight.from), partEnd, flight));
+            deduplicated.increment();
+            if (partEnd == to)
+                return;
+            partStart = partEnd + 1;
+        }
+        parts.add(new Part(partStart, to, start(partStart, to, computation, tasks)));
+    }
+
+    private Flight start(long from, long to, BiFunction<Long, Long, PrimeSequence> computation,
+                         List<FutureTask<Void>> tasks) {
+        Flight flight = new Flight(from, to);
+        inFlight.put(from, flight);
+        tasks.add(new FutureTask<>(() -> {
+            try {
+                flight.future.complete(computation.apply(from, to));
+            } catch (RuntimeException | Error e) {
+                // the failure is rethrown by join() to this and all other requests waiting for the computation
+                flight.future.completeExceptionally(e);
+            } finally {
+                synchronized (inFlight) {
+                    inFlight.remove(from, flight);
+                }
+            }
+        }, null));
+        computations.increment();
+        return flight;
+    }
+
+    private static PrimeSequence join(Part part, BiFunction<Long, Long, PrimeSequence> computation) {
+        try {
+            return part.flight.future.get();
+        } catch (InterruptedException e) {
+            // the request has been cancelled
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        } catch (CancellationException e) {
+            // the computation started by a request cancelled meanwhile is repeated by the requests waiting for it
+            if (Thread.currentThread().isInterrupted())
+                throw e;
+            return computation.apply(part.from, part.to);
+        } catch (ExecutionException e) {
+            // rethrow the failure of the computation started by another request as is
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * Get the number of ranges being computed at the moment.
+     * @return number of computations in progress
+     */
+    public int getInFlightCount() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * Get the number of ranges computed.
+     * @return number of computations
+     */
+    public long getComputationCount() {
+        return computations.sum();
+    }
+
+    /**
+     * Get the number of parts taken from computations started by other requests.
+     * @return number of deduplicated computations
+     */
+    public long getDeduplicatedCount() {
+        return deduplicated.sum();
+    }
+
+    /**
+     * Range being computed.
+     */
+    private static final class Flight {
+        private final long from;
+        private final long to;
+        private final CompletableFuture<PrimeSequence> future = new CompletableFuture<>();
+
+        Flight(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Part of a requested range covered by a single computation.
+     */
+    private static final class Part {
+        private final long from;
+        private final long to;
+        private final Flight flight;
+
+        Part(long from, long to, Flight flight) {
+            this.from = from;
+            this.to = to;
+            this.flight = flight;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package prime;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import prime.generator.LatencyHistogram;
+import prime.generator.PrimeGenerator;
+import prime.generator.PrimeSequence;
+
+/**
+ * Prime number generator decorator recording the latency of each request and the number of primes generated.
+ *
+ * This class is thread-safe if the decorated generator is.
+ */
+public class InstrumentedPrimeGenerator implements PrimeGenerator {
+    private final PrimeGenerator generator;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder primes = new LongAdder();
+
+    /**
+     * Construct decorator of the given generator.
+     * @param generator prime number generator
+     */
+    public InstrumentedPrimeGenerator(PrimeGenerator generator) {
+        this.generator = generator;
+    }
+
+    @Override
+    public PrimeSequence generate(long limit) {
+        long start = System.nanoTime();
+        PrimeSequence result = generator.generate(limit);
+        record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public PrimeSequence generate(long from, long limit) {
+        long start = System.nanoTime();
+        PrimeSequence result = generator.generate(from, limit);
+        record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public void generate(long from, long limit, Consumer<PrimeSequence> consumer) {
+        long start = System.nanoTime();
+        LongAdder count = new LongAdder();
+        try {
+            generator.generate(from, limit, chunk -> {
+                count.add(chunk.size());
+                consumer.accept(chunk);
+            });
+        } finally {
+            // the time includes the time spent by the consumer, e.g. writing the response
+            record(start, count.sum());
+        }
+    }
+
+    private void record(long start, long count) {
+        latency.record(System.nanoTime() - start);
+        primes.add(count);
+    }
+
+    /**
+     * Get the decorated generator.
+     * @return prime number generator
+     */
+    public PrimeGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Get the histogram of latencies of all requests.
+     * @return latency histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get the number of primes generated.
+     * @return number of primes
+     */
+    public long getPrimeCount() {
+        return primes.sum();
+    }
+}
@@ -0,0 +1,426 @@
+package prime;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import prime.generator.PrimeSequence;
+import prime.generator.WheelBitmap;
+
+/**
+ * Implements a persistent cache of prime numbers backed by memory-mapped files on local disk.
+ *
+ * Prime numbers of each cached range are stored as a {@link WheelBitmap} segment appended to the segments file.
+ * For each segment a fixed-size record (range start, range end, bitmap base, bitmap length, file offset and
+ * a CRC-32 checksum of the record and the segment) is appended to the index file once the segment is written.
+ * On startup the index is read, the checksum of each segment is verified and all segments are mapped, so the cache
+ * is warm immediately after a restart. The index is truncated at the first record that does not match its segment,
+ * so a segment or a record torn by a crash is never visible. Lookups read the mapped pages directly without any
+ * deserialization and the cache can grow far beyond the size of the heap.
+ *
+ * The segments file is mapped with {@link FileChannel#map} in fixed windows of 1GB rather than per segment, since
+ * each mapping takes a memory map area of the process and their number is limited by the OS (vm.max_map_count,
+ * 65530 by default on Linux). A segment never crosses a window boundary, the file offset of a segment that would
+ * is moved to the start of the next window. The file is extended to the end of the last window when it is mapped,
+ * the unused part of the window is not allocated on disk on file systems supporting sparse files.
+ *
+ * Cached ranges are never merged. Only the parts of a new range not covered by the cache yet are stored, so
+ * the segments never overlap. When a new segment does not fit into the size limit, the cache is compacted: the most
+ * recently used segments filling up to half of the limit are copied into new files which replace the old ones,
+ * the other segments are evicted. Lookups in progress keep reading the previous mapping, which stays valid until
+ * it is no longer referenced. A crash during compaction leaves either the previous or the compacted cache, or an
+ * index whose records do not match the segments and are dropped on load.
+ *
+ * The directory and the size limit are given by 'prime.cache.dir' and 'prime.cache.mapped.maxBytes'
+ * in prime_controller.properties (default 'prime-cache' in the working directory and 4GB). A directory must not
+ * be shared by multiple processes. The files are closed by {@link #close()}.
+ *
+ * This class is thread-safe.
+ */
+public class MappedPrimeCache implements PrimeCache {
+    private static final String DEFAULT_DIRECTORY = "prime-cache";
+    private static final long DEFAULT_MAX_CACHE_BYTES = 4L << 30;
+    private static final long MAX_SEGMENT_BYTES = 256L << 20;
+    private static final long WINDOW_BYTES = 1L << 30;
+    private static final String SEGMENTS_FILE = "segments.dat";
+    private static final String INDEX_FILE = "index.dat";
+    private static final String COMPACTED_SUFFIX = ".compacted";
+    private static final int INDEX_RECORD_SIZE = 6 * Long.BYTES;
+
+    private final Path directory;
+    private final long maxCacheBytes;
+    // replaced as a whole by compaction, so lookups in progress keep the segments of the previous files
+    private volatile ConcurrentNavigableMap<Range, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object segmentUpdateLock = new Object();
+    // mapped windows of the segments file, guarded by segmentUpdateLock
+    private List<ByteBuffer> windows = new ArrayList<>();
+    private FileChannel segmentsChannel;
+    private FileChannel indexChannel;
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private long currentCacheBytes;
+
+    /**
+     * Construct cache stored in directory 'prime-cache' in the working directory, limited to 4GB.
+     * @throws IOException if the cache files can not be opened
+     */
+    public MappedPrimeCache() throws IOException {
+        this(Paths.get(DEFAULT_DIRECTORY), DEFAULT_MAX_CACHE_BYTES);
+    }
+
+    /**
+     * Construct cache stored in the given directory, limited to 4GB. Segments already stored in the directory are
+     * loaded.
+     * @param directory cache directory, created if it does not exist
+     * @throws IOException if the cache files can not be opened
+     */
+    public MappedPrimeCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_CACHE_BYTES);
+    }
+
+    /**
+     * Construct cache stored in the given directory with the given limit. Segments already stored in the directory
+     * are loaded.
+     * @param directory cache directory, created if it does not exist
+     * @param maxCacheBytes maximum size of the segments file in bytes
+     * @throws IOException if the cache files can not be opened
+     */
+    public MappedPrimeCache(Path directory, long maxCacheBytes) throws IOException {
+        if (maxCacheBytes <= 0)
+            throw new IllegalArgumentException("Cache size must be greater than zero");
+        this.directory = directory;
+        this.maxCacheBytes = maxCacheBytes;
+        Files.createDirectories(directory);
+        open();
+        loadIndex();
+    }
+
+    private void open() throws IOException {
+        segmentsChannel = FileChannel.open(directory.resolve(SEGMENTS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        windows = new ArrayList<>();
+    }
+
+    private void loadIndex() throws IOException {
+        long records = indexChannel.size() / INDEX_RECORD_SIZE;
+        long segmentsSize = segmentsChannel.size();
+
+        ByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, records * INDEX_RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long end = 0;
+        long valid = 0;
+        for (; valid < records; valid++) {
+            long from = index.getLong();
+            long to = index.getLong();
+            long base = index.getLong();
+            long length = index.getLong();
+            long offset = index.getLong();
+            long checksum = index.getLong();
+            long size = wordBytes((int)length);
+            // a record or a segment torn by a crash is detected by the checksum, the rest of the index is dropped
+            if (length <= 0 || length > MAX_SEGMENT_BYTES || offset < 0 || offset + size > segmentsSize
+                    || offset / WINDOW_BYTES != (offset + size - 1) / WINDOW_BYTES)
+                break;
+            Segment segment = map(base, (int)length, offset, size);
+            if (checksum(from, to, base, (int)length, offset, segment.data) != checksum)
+                break;
+            segment.lastAccess = clock.incrementAndGet(); // the later records are the more recent ones
+            segments.put(new Range(from, to), segment);
+            end = Math.max(end, offset + size);
+        }
+        // drop the records that do not match their segments and the incomplete record, if any
+        if (valid < records || indexChannel.size() > valid * INDEX_RECORD_SIZE)
+            indexChannel.truncate(valid * INDEX_RECORD_SIZE);
+        // the segment left by an interrupted update, if any, is overwritten by the next one
+        currentCacheBytes = end;
+    }
+
+    /**
+     * Get a view of the given segment in its window, mapping the windows up to it if they are not mapped yet.
+     * Views of a mapped buffer share its mapping, so no memory map area is taken per segment.
+     */
+    private Segment map(long base, int length, long offset, long size) throws IOException {
+        int window = (int)(offset / WINDOW_BYTES);
+        while (windows.size() <= window) {
+            windows.add(segmentsChannel.map(FileChannel.MapMode.READ_ONLY, windows.size() * WINDOW_BYTES,
+                    WINDOW_BYTES));
+        }
+        ByteBuffer data = windows.get(window).duplicate();
+        int position = (int)(offset % WINDOW_BYTES);
+        data.limit(position + (int)size).position(position);
+        return new Segment(base, length, data.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static long wordBytes(int length) {
+        return ((length + 7L) >>> 3) * Long.BYTES;
+    }
+
+    private static long checksum(long from, long to, long base, int length, long offset, ByteBuffer data) {
+        ByteBuffer header = ByteBuffer.allocate(5 * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(from).putLong(to).putLong(base).putLong(length).putLong(offset);
+        header.flip();
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(data.duplicate());
+        return crc.getValue();
+    }
+
+    @Override
+    public void addAll(long from, long to, PrimeSequence primes) {
+        if (primes.isEmpty())
+            return;
+        if (WheelBitmap.bytesFor(Math.max(from, 0), to) > Math.min(MAX_SEGMENT_BYTES, maxCacheBytes / 2)) {
+            rejections.increment();
+            return;
+        }
+
+        synchronized (segmentUpdateLock) {
+            try {
+                for (Range gap : find(from, to, false).getGaps())
+                    addSegment(gap.getFrom(), gap.getTo(), primes.subSequence(gap.getFrom(), gap.getTo()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void addSegment(long from, long to, PrimeSequence primes) throws IOException {
+        WheelBitmap bitmap = WheelBitmap.of(from, to, primes);
+        long bytes = wordBytes(bitmap.getLength());
+        long offset = nextOffset(currentCacheBytes, bytes);
+        if (offset + bytes > maxCacheBytes) {
+            compact();
+            offset = nextOffset(currentCacheBytes, bytes);
+            if (offset + bytes > maxCacheBytes) {
+                rejections.increment();
+                return;
+            }
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int)bytes).order(ByteOrder.LITTLE_ENDIAN);
+        data.asLongBuffer().put(bitmap.getWords());
+        write(segmentsChannel, indexChannel, from, to, bitmap.getBase(), bitmap.getLength(), data, offset);
+
+        Segment segment = map(bitmap.getBase(), bitmap.getLength(), offset, bytes);
+        segment.lastAccess = clock.incrementAndGet();
+        segments.put(new Range(from, to), segment);
+        currentCacheBytes = offset + bytes;
+    }
+
+    /**
+     * Get the offset of a segment of the given size appended at the given end of the segments file.
+     * A segment never crosses a window boundary.
+     */
+    private static long nextOffset(long end, long bytes) {
+        if (end / WINDOW_BYTES != (end + bytes - 1) / WINDOW_BYTES)
+            return (end / WINDOW_BYTES + 1) * WINDOW_BYTES;
+        return end;
+    }
+
+    /**
+     * Write the given segment at the given offset of the segments file and append its record to the index.
+     * The segment is forced to disk before its record is written.
+     */
+    private static void write(FileChannel segmentsChannel, FileChannel indexChannel, long from, long to, long base,
+                              int length, ByteBuffer data, long offset) throws IOException {
+        long checksum = checksum(from, to, base, length, offset, data);
+        ByteBuffer buffer = data.duplicate();
+        while (buffer.hasRemaining())
+            segmentsChannel.write(buffer, offset + buffer.position());
+        segmentsChannel.force(false);
+
+        ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        record.putLong(from).putLong(to).putLong(base).putLong(length).putLong(offset).putLong(checksum);
+        record.flip();
+        long recordOffset = indexChannel.size();
+        while (record.hasRemaining())
+            indexChannel.write(record, recordOffset + record.position());
+        indexChannel.force(false);
+    }
+
+    /**
+     * Copy the most recently used segments filling up to half of the limit into new files replacing the current
+     * ones and evict the other segments.
+     */
+    private void compact() throws IOException {
+        ConcurrentNavigableMap<Range, Segment> current = segments;
+        List<Map.Entry<Range, Segment>> recent = new ArrayList<>(current.entrySet());
+        recent.sort(Comparator.comparingLong((Map.Entry<Range, Segment> e) -> e.getValue().lastAccess).reversed());
+
+        Path compactedSegments = directory.resolve(SEGMENTS_FILE + COMPACTED_SUFFIX);
+        Path compactedIndex = directory.resolve(INDEX_FILE + COMPACTED_SUFFIX);
+        List<Map.Entry<Range, Segment>> kept = new ArrayList<>();
+        long end = 0;
+        for (Map.Entry<Range, Segment> e : recent) {
+            long bytes = e.getValue().data.remaining();
+            long offset = nextOffset(end, bytes);
+            if (offset + bytes > maxCacheBytes / 2)
+                break;
+            kept.add(e);
+            end = offset + bytes;
+        }
+        // the later records are the more recent ones on load, so the kept segments are written oldest first
+        Collections.reverse(kept);
+        List<Long> offsets = new ArrayList<>();
+        end = 0;
+        try (FileChannel newSegments = FileChannel.open(compactedSegments, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             FileChannel newIndex = FileChannel.open(compactedIndex, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<Range, Segment> e : kept) {
+                Segment segment = e.getValue();
+                long bytes = segment.data.remaining();
+                long offset = nextOffset(end, bytes);
+                write(newSegments, newIndex, e.getKey().getFrom(), e.getKey().getTo(), segment.base, segment.length,
+                        segment.data, offset);
+                offsets.add(offset);
+                end = offset + bytes;
+            }
+        }
+
+        // the index is replaced last, so a crash in between leaves records not matching the segments, dropped on load
+        segmentsChannel.close();
+        indexChannel.close();
+        Files.move(compactedSegments, directory.resolve(SEGMENTS_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.move(compactedIndex, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        open();
+
+        ConcurrentNavigableMap<Range, Segment> compacted = new ConcurrentSkipListMap<>();
+        for (int i = 0; i < kept.size(); i++) {
+            Segment previous = kept.get(i).getValue();
+            Segment segment = map(previous.base, previous.length, offsets.get(i), previous.data.remaining());
+            segment.lastAccess = previous.lastAccess;
+            compacted.put(kept.get(i).getKey(), segment);
+        }
+        segments = compacted;
+        currentCacheBytes = end;
+        evictions.add(current.size() - kept.size());
+    }
+
+    @Override
+    public PrimeCacheLookup lookup(long from, long to) {
+        return find(from, to, true);
+    }
+
+    private PrimeCacheLookup find(long from, long to, boolean recordAccess) {
+        PrimeCacheLookup lookup = new PrimeCacheLookup();
+        long now = recordAccess ? clock.incrementAndGet() : 0;
+        long rangeStart = from;
+        ConcurrentNavigableMap<Range, Segment> current = segments;
+        // segments never overlap, so the last one starting at or before 'from' is the only one that may contain it
+        Range floor = current.floorKey(new Range(from, Long.MAX_VALUE));
+        Map<Range, Segment> candidates = floor == null ? current : current.tailMap(floor, true);
+        for (Map.Entry<Range, Segment> e: candidates.entrySet()) {
+            Range range = e.getKey();
+            if (range.getTo() < rangeStart)
+                continue;
+            if (range.getFrom() > to)
+                break;
+            if (range.getFrom() > rangeStart) {
+                lookup.addGap(rangeStart, range.getFrom() - 1);
+                rangeStart = range.getFrom();
+            }
+            long rangeTo = Math.min(to, range.getTo());
+            Segment segment = e.getValue();
+            if (recordAccess)
+                segment.lastAccess = now;
+            // the segments are never rewritten, so they are decoded lazily
+            lookup.addCached(rangeStart, rangeTo, (partFrom, partTo, primes) -> {
+                // primes 2, 3 and 5 are not stored in the bitmaps
+                WheelBitmap.appendWheelPrimes(partFrom, partTo, primes);
+                WheelBitmap.appendTo(segment.words, segment.base, segment.length, partFrom, partTo, primes);
+            });
+            if (rangeTo == to)
+                return lookup;
+            rangeStart = rangeTo + 1;
+        }
+        lookup.addGap(rangeStart, to);
+        return lookup;
+    }
+
+    /**
+     * Get the total size of the stored segments, including the unused ends of the windows.
+     * @return size in bytes
+     */
+    @Override
+    public long getSize() {
+        synchronized (segmentUpdateLock) {
+            return currentCacheBytes;
+        }
+    }
+
+    /**
+     * Get the number of segments evicted by compaction.
+     * @return number of evictions
+     */
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the number of ranges that were not stored, because they were too large.
+     * @return number of rejections
+     */
+    @Override
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    /**
+     * Close the cache files. The segments already looked up stay readable, further updates fail.
+     * @throws IOException if the files can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (segmentUpdateLock) {
+            try {
+                segmentsChannel.close();
+            } finally {
+                indexChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Bitmap words of a single range mapped from the segments file.
+     */
+    private static final class Segment {
+        private final long base;
+        private final int length;
+        private final ByteBuffer data;
+        private final LongBuffer words;
+        // value of the cache clock at the last hit
+        private volatile long lastAccess;
+
+        Segment(long base, int length, ByteBuffer data) {
+            this.base = base;
+            this.length = length;
+            this.data = data;
+            this.words = data.asLongBuffer();
+        }
+    }
+}
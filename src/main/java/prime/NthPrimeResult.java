@@ -0,0 +1,35 @@
+package prime;
+
+/**
+ * Represents a result of finding the n-th prime number.
+ */
+public class NthPrimeResult {
+    private final long n;
+    private final long prime;
+
+    /**
+     * Construct result object with the given prime number.
+     * @param n index of the prime
+     * @param prime the n-th prime number
+     */
+    public NthPrimeResult(long n, long prime) {
+        this.n = n;
+        this.prime = prime;
+    }
+
+    /**
+     * Return index of the prime
+     * @return index of the prime
+     */
+    public long getN() {
+        return n;
+    }
+
+    /**
+     * Return the n-th prime number
+     * @return prime number
+     */
+    public long getPrime() {
+        return prime;
+    }
+}
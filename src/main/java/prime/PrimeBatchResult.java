@@ -0,0 +1,26 @@
+package prime;
+
+import java.util.List;
+
+/**
+ * Represents a result of a prime number generation for a batch of requested ranges.
+ */
+public class PrimeBatchResult {
+    private final List<PrimeResult> results;
+
+    /**
+     * Construct result object with the given results of the ranges.
+     * @param results results in the order of the requested ranges
+     */
+    public PrimeBatchResult(List<PrimeResult> results) {
+        this.results = results;
+    }
+
+    /**
+     * Return results of all requested ranges
+     * @return results in the order of the requested ranges
+     */
+    public List<PrimeResult> getResults() {
+        return results;
+    }
+}
@@ -1,27 +1,73 @@
 package prime;
 
-import java.util.List;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+
+import prime.generator.PrimeSequence;
 
 /**
  * Defines interface for cache capable of storing prime numbers.
  */
-public interface PrimeCache {
+public interface PrimeCache extends Closeable {
     /**
      * Add all primes for the given range into the cache. Ignores the primes that are already in the cache.
-     * The list must be ordered or the result of the operation is undefined.
+     * The sequence must be ordered or the result of the operation is undefined.
      * @param from range start
      * @param to range end
-     * @param primes list of primes
+     * @param primes sequence of primes
+     */
+    void addAll(long from, long to, PrimeSequence primes);
+
+    /**
+     * Look up the range given by [from..to] (both inclusive) in cache. The result contains the primes of all
+     * parts of the range available in cache and the gaps that are not.
+     * @param from range start
+     * @param to range end
+     * @return lookup result
+     */
+    PrimeCacheLookup lookup(long from, long to);
+
+    /**
+     * Get the size of the cached data.
+     * @return size in bytes
+     */
+    long getSize();
+
+    /**
+     * Get the number of ranges evicted from the cache to make room for new ones.
+     * @return number of evictions, 0 if the cache never evicts
+     */
+    default long getEvictionCount() {
+        return 0;
+    }
+
+    /**
+     * Get the number of ranges that were not admitted to the cache, e.g. because they did not fit.
+     * @return number of rejections
+     */
+    default long getRejectionCount() {
+        return 0;
+    }
+
+    /**
+     * Release the resources held by the cache, e.g. the open files of a persistent cache.
+     * @throws IOException if the resources can not be released
      */
-    void addAll(long from, long to, List<Long> primes);
+    @Override
+    default void close() throws IOException {
+    }
 
     /**
      * Get all primes in cache in the range given by [from..to] (both inclusive).
      * If the full range is not available in cache, return null.
      * @param from range start
      * @param to range end
-     * @return list of primes or null
+     * @return sequence of primes or null
      */
-    List<Long> getPrimes(long from, long to);
+    default PrimeSequence getPrimes(long from, long to) {
+        PrimeCacheLookup lookup = lookup(from, to);
+        return lookup.isComplete() ? lookup.merge(Collections.emptyList()) : null;
+    }
 
 }
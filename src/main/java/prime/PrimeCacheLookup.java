@@ -0,0 +1,166 @@
+package prime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import prime.generator.PrimeSequence;
+
+/**
+ * Represents a result of a cache lookup for a requested range.
+ *
+ * The requested range is split into consecutive parts in ascending order. Each part is either covered by the cache,
+ * in which case its primes are available, or it is a gap that is not available in cache.
+ *
+ * The primes of the cached parts are not decoded by the lookup itself, each part holds a reference to the cached
+ * data and its primes are only decoded when requested, either all at once or one chunk at a time. The cached data
+ * is never modified, so it can be decoded even after it has been replaced or evicted from the cache.
+ */
+public class PrimeCacheLookup {
+    private final List<Range> parts = new ArrayList<>();
+    // cached data of each part or null for gaps
+    private final List<CachedPart> cached = new ArrayList<>();
+    private final List<Range> gaps = new ArrayList<>();
+
+    /**
+     * Cached data of a part decoded on demand.
+     */
+    @FunctionalInterface
+    public interface CachedPart {
+        /**
+         * Append all primes in range [from..to] inside the part to the given sequence in ascending order.
+         * @param from range start
+         * @param to range end
+         * @param primes sequence of primes
+         */
+        void appendTo(long from, long to, PrimeSequence primes);
+    }
+
+    /**
+     * Append a part covered by the cache.
+     * @param from part start
+     * @param to part end
+     * @param part cached data of the part
+     */
+    public void addCached(long from, long to, CachedPart part) {
+        parts.add(new Range(from, to));
+        cached.add(part);
+    }
+
+    /**
+     * Append a part not available in cache.
+     * @param from gap start
+     * @param to gap end
+     */
+    public void addGap(long from, long to) {
+        Range gap = new Range(from, to);
+        parts.add(gap);
+        cached.add(null);
+        gaps.add(gap);
+    }
+
+    /**
+     * Check whether the whole requested range is available in cache.
+     * @return true if there are no gaps
+     */
+    public boolean isComplete() {
+        return gaps.isEmpty();
+    }
+
+    /**
+     * Get all parts of the requested range in ascending order.
+     * @return list of parts
+     */
+    public List<Range> getParts() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * Check whether the given part is covered by the cache.
+     * @param index index of the part
+     * @return true if the part is cached, false if it is a gap
+     */
+    public boolean isCached(int index) {
+        return cached.get(index) != null;
+    }
+
+    /**
+     * Decode the cached primes of the given part.
+     * @param index index of the part
+     * @return sequence of primes or null if the part is a gap
+     */
+    public PrimeSequence getCachedPrimes(int index) {
+        CachedPart part = cached.get(index);
+        if (part == null)
+            return null;
+        Range range = parts.get(index);
+        PrimeSequence primes = PrimeSequence.forRange(range.getFrom(), range.getTo());
+        part.appendTo(range.getFrom(), range.getTo(), primes);
+        return primes;
+    }
+
+    /**
+     * Decode the cached primes of the given part passing them to the consumer one chunk of at most 'chunkSize'
+     * numbers at a time, so only a single chunk of primes is held in memory at any moment. The chunk is reused,
+     * the consumer must not retain it. Empty chunks are skipped.
+     * @param index index of the part, which must be cached
+     * @param chunkSize number of integers decoded at once
+     * @param consumer consumer of prime number chunks
+     */
+    public void forEachCachedChunk(int index, long chunkSize, Consumer<PrimeSequence> consumer) {
+        CachedPart part = cached.get(index);
+        if (part == null)
+            throw new IllegalArgumentException("Part " + index + " is not cached");
+        Range range = parts.get(index);
+        PrimeSequence chunk = null;
+        for (long low = range.getFrom(); ; ) {
+            long high = range.getTo() - low < chunkSize ? range.getTo() : low + chunkSize - 1;
+            if (chunk == null)
+                chunk = PrimeSequence.forRange(low, high);
+            part.appendTo(low, high, chunk);
+            if (!chunk.isEmpty()) {
+                consumer.accept(chunk);
+                chunk.clear();
+            }
+            // checking the end of part explicitly as the next chunk start overflows at Long.MAX_VALUE
+            if (high == range.getTo())
+                break;
+            low = high + 1;
+        }
+    }
+
+    /**
+     * Get all parts of the requested range not available in cache in ascending order.
+     * @return list of gaps
+     */
+    public List<Range> getGaps() {
+        return Collections.unmodifiableList(gaps);
+    }
+
+    /**
+     * Merge the cached primes with the primes of the gaps into a single sequence of primes of the requested range.
+     * @param gapPrimes primes of each gap in the order of {@link #getGaps()}
+     * @return sequence of primes
+     */
+    public PrimeSequence merge(List<PrimeSequence> gapPrimes) {
+        if (gapPrimes.size() != gaps.size())
+            throw new IllegalArgumentException("Primes must be given for all " + gaps.size() + " gaps");
+        if (parts.size() == 1)
+            return isCached(0) ? getCachedPrimes(0) : gapPrimes.get(0);
+
+        List<PrimeSequence> primes = new ArrayList<>(parts.size());
+        int size = 0;
+        int gap = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            PrimeSequence p = isCached(i) ? getCachedPrimes(i) : gapPrimes.get(gap++);
+            primes.add(p);
+            size += p.size();
+        }
+
+        PrimeSequence result = new PrimeSequence(size);
+        for (PrimeSequence p : primes)
+            result.addAll(p);
+        return result;
+    }
+}
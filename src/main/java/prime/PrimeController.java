@@ -1,60 +1,819 @@
 package prime;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import prime.generator.BasePrimeTable;
+import prime.generator.PrimeConstellations;
+import prime.generator.PrimeCounter;
 import prime.generator.PrimeGenerator;
+import prime.generator.PrimeSequence;
+import prime.generator.SieveOfEratosthenesSegmentedPrimeGenerator;
 
 /**
  * Controller for the Restful service.
+ *
+ * Requests are processed asynchronously on a dedicated compute executor with a bounded queue, so long computations
+ * never block the servlet threads. When the queue is full the requests are rejected immediately with
+ * 503 (Service Unavailable) status and 'Retry-After' header. Streaming responses are written on the same executor
+ * and the parts of a request computed in parallel are run on it as well, see {@link AsyncConfiguration}.
+ * The computation of a request that times out is cancelled, so it does not keep its compute thread busy after
+ * the client got the error.
  */
 @RestController
 public class PrimeController {
 
-    private final PrimeGenerator generator;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final String REJECTED_ATTRIBUTE = PrimeController.class.getName() + ".rejected";
+    private static final String COMPUTATION_ATTRIBUTE = PrimeController.class.getName() + ".computation";
+    private static final int MAX_PAGE_SIZE = 1_000_000;
+    private static final int MAX_BATCH_SIZE = 10_000;
+    // total width of the merged ranges of a batch, whose primes are all held in memory at once
+    private static final long MAX_BATCH_WIDTH = 100_000_000L;
+    // width of the range scanned for a single page of k-tuples
+    private static final long MAX_TUPLE_SCAN_WIDTH = 1_000_000_000L;
+    // ranges of a batch closer than one sieve segment are sieved together
+    private static final long BATCH_MERGE_GAP = SieveOfEratosthenesSegmentedPrimeGenerator.SEGMENT_SIZE;
+    private static final long DEFAULT_REQUEST_TIMEOUT_SECONDS = 600;
+
+    private final InstrumentedPrimeGenerator generator;
     private final PrimeCache cache;
+    private final InFlightRegistry inFlight;
+    private final ThreadPoolExecutor executor;
+    private final long requestTimeoutMillis;
+    private final long streamTimeoutMillis;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cachePartialHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
 
     public PrimeController() throws Exception {
+        this(loadProperties());
+    }
+
+    private PrimeController(Properties props) throws Exception {
+        this(configureBasePrimes(props), createExecutor(
+                Integer.parseInt(props.getProperty("prime.executor.threads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Integer.parseInt(props.getProperty("prime.executor.queue.capacity", "100"))));
+    }
+
+    private PrimeController(Properties props, ThreadPoolExecutor executor) throws Exception {
+        this(createGenerator(props.getProperty("prime.generator.class"), executor),
+                createCache(props),
+                executor,
+                TimeUnit.SECONDS.toMillis(Long.parseLong(props.getProperty("prime.request.timeout.seconds",
+                        String.valueOf(DEFAULT_REQUEST_TIMEOUT_SECONDS)))),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(props.getProperty("prime.stream.timeout.seconds", "0"))));
+    }
+
+    /**
+     * Construct controller with the given generator and cache.
+     * @param generator prime number generator
+     * @param cache prime number cache
+     * @param threads number of compute threads
+     * @param queueCapacity maximum number of requests waiting for a compute thread
+     */
+    public PrimeController(PrimeGenerator generator, PrimeCache cache, int threads, int queueCapacity) {
+        this(generator, cache, createExecutor(threads, queueCapacity),
+                TimeUnit.SECONDS.toMillis(DEFAULT_REQUEST_TIMEOUT_SECONDS), 0);
+    }
+
+    private PrimeController(PrimeGenerator generator, PrimeCache cache, ThreadPoolExecutor executor,
+                            long requestTimeoutMillis, long streamTimeoutMillis) {
+        this.generator = new InstrumentedPrimeGenerator(generator);
+        this.cache = cache;
+        this.executor = executor;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.streamTimeoutMillis = streamTimeoutMillis;
+        inFlight = new InFlightRegistry(executor);
+    }
+
+    /**
+     * Shut down the compute executor and close the cache, the requests in progress are interrupted.
+     * @throws IOException if the cache can not be closed
+     */
+    @PreDestroy
+    public void shutdown() throws IOException {
+        executor.shutdownNow();
+        cache.close();
+    }
+
+    private static Properties loadProperties() throws IOException {
         Properties props = new Properties();
-        InputStream inputStream = getClass().getClassLoader().getResourceAsStream("prime_controller.properties");
+        InputStream inputStream = PrimeController.class.getClassLoader()
+                .getResourceAsStream("prime_controller.properties");
         props.load(inputStream);
-        Class<?> generatorClass = Class.forName(props.getProperty("prime.generator.class"));
-        generator = (PrimeGenerator) generatorClass.newInstance();
+        return props;
+    }
+
+    private static Properties configureBasePrimes(Properties props) {
+        String maxBound = props.getProperty("prime.sieve.basePrimes.maxBound");
+        if (maxBound != null)
+            BasePrimeTable.setMaxBound(Long.parseLong(maxBound));
+        return props;
+    }
+
+    private static PrimeGenerator createGenerator(String className, Executor executor) throws Exception {
+        Class<?> generatorClass = Class.forName(className);
+        try {
+            // the parallel generators run on the compute executor, so they are bounded by its threads as well
+            return (PrimeGenerator)generatorClass.getConstructor(Executor.class).newInstance(executor);
+        } catch (NoSuchMethodException e) {
+            return (PrimeGenerator)generatorClass.newInstance();
+        }
+    }
+
+    private static PrimeCache createCache(Properties props) throws Exception {
         Class<?> cacheClass = Class.forName(props.getProperty("prime.generator.cache.class"));
-        cache = (PrimeCache)cacheClass.newInstance();
+        String maxBytes = props.getProperty("prime.cache.maxBytes");
+        if (cacheClass == ConcurrentRangePrimeCache.class && maxBytes != null)
+            return new ConcurrentRangePrimeCache(Long.parseLong(maxBytes));
+        if (cacheClass == MappedPrimeCache.class) {
+            return new MappedPrimeCache(Paths.get(props.getProperty("prime.cache.dir", "prime-cache")),
+                    Long.parseLong(props.getProperty("prime.cache.mapped.maxBytes", String.valueOf(4L << 30))));
+        }
+        return (PrimeCache)cacheClass.newInstance();
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "prime-compute-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // the default AbortPolicy rejects new tasks once all threads are busy and the queue is full
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory);
     }
 
     /**
      * Handler for 'getPrimes' request that generates and returns prime numbers in the requested range.
      * @param fromStr range start (string)
      * @param toStr range end (string)
-     * @return prime number result
+     * @return future prime number result
      */
     @RequestMapping(method = RequestMethod.GET, value = "/getPrimes")
-    public PrimeResult getPrimes(
+    public CompletableFuture<PrimeResult> getPrimes(
             @RequestParam(value="from", defaultValue = "1") String fromStr,
             @RequestParam(value="to", defaultValue="10000") String toStr) {
 
+        Range range = parseRange(fromStr, toStr);
+        return compute(() -> new PrimeResult(findPrimes(range.getFrom(), range.getTo())));
+    }
+
+    /**
+     * Handler for 'getPrimes/batch' request that generates and returns prime numbers in each of the requested ranges.
+     * The ranges are sorted and the overlapping or nearby ones are merged, so each number is sieved (and cached)
+     * at most once per batch regardless of the number of ranges covering it. At most 10,000 ranges can be
+     * requested at once and the merged ranges must not be wider than 100,000,000 numbers in total.
+     * @param ranges list of [from, to] pairs
+     * @return future results in the order of the requested ranges
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/getPrimes/batch")
+    public CompletableFuture<PrimeBatchResult> getPrimeBatch(@RequestBody long[][] ranges) {
+        if (ranges.length == 0 || ranges.length > MAX_BATCH_SIZE)
+            throw new IllegalArgumentException("Number of ranges must be in range [1.." + MAX_BATCH_SIZE + "]");
+        List<Range> requested = new ArrayList<>(ranges.length);
+        for (long[] range : ranges) {
+            if (range.length != 2 || range[1] < range[0])
+                throw new IllegalArgumentException("Incorrect range");
+            requested.add(new Range(range[0], range[1]));
+        }
+        List<Range> merged = mergeBatch(requested);
+        long width = 0;
+        for (Range range : merged) {
+            // there are no primes below zero, so the ranges are only counted from zero
+            if (range.getTo() >= 0)
+                width += Math.min(range.getTo() - Math.max(range.getFrom(), 0), MAX_BATCH_WIDTH) + 1;
+            if (width > MAX_BATCH_WIDTH)
+                throw new IllegalArgumentException("Total width of the ranges must not exceed " + MAX_BATCH_WIDTH);
+        }
+        return compute(() -> findBatch(requested, merged));
+    }
+
+    /**
+     * Handler for 'getPrimes' request with 'pageSize' parameter that returns a single page of at most 'pageSize'
+     * prime numbers in the requested range. The first page is requested without 'cursor' parameter, the following
+     * ones with the cursor returned with the previous page. Only the window of numbers required for the page is
+     * sieved (and cached), so the cost of a request is bounded by the page size regardless of the range.
+     * @param fromStr range start (string)
+     * @param toStr range end (string)
+     * @param pageSize maximum number of primes in the page
+     * @param cursor cursor returned with the previous page or null for the first page
+     * @return future prime number page
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/getPrimes", params = "pageSize")
+    public CompletableFuture<PrimePageResult> getPrimePage(
+            @RequestParam(value="from", defaultValue = "1") String fromStr,
+            @RequestParam(value="to", defaultValue="10000") String toStr,
+            @RequestParam(value="pageSize") int pageSize,
+            @RequestParam(value="cursor", required = false) String cursor) {
+
+        Range range = parseRange(fromStr, toStr);
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("Page size must be in range [1.." + MAX_PAGE_SIZE + "]");
+        long start = range.getFrom();
+        if (cursor != null) {
+            // the cursor is the last prime of the previous page
+            long last = Long.parseLong(cursor, Character.MAX_RADIX);
+            if (last < range.getFrom() || last >= range.getTo())
+                throw new IllegalArgumentException("Incorrect cursor");
+            start = last + 1;
+        }
+        long pageStart = start;
+        return compute(() -> findPage(pageStart, range.getTo(), pageSize));
+    }
+
+    /**
+     * Handler for 'getPrimes' request with 'Accept: application/x-prime-deltas' header that returns prime numbers
+     * in the requested range in compact binary format (see {@link PrimeDeltaWriter}).
+     * If 'stream' parameter is true the primes are written one sieve segment at a time and are not cached.
+     * @param fromStr range start (string)
+     * @param toStr range end (string)
+     * @param stream whether to stream the primes as they are generated
+     * @return future streaming response body
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/getPrimes", produces = PrimeDeltaWriter.MEDIA_TYPE)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> getPrimeDeltas(
+            @RequestParam(value="from", defaultValue = "1") String fromStr,
+            @RequestParam(value="to", defaultValue="10000") String toStr,
+            @RequestParam(value="stream", defaultValue="false") boolean stream) {
+
+        Range range = parseRange(fromStr, toStr);
+        if (stream)
+            return CompletableFuture.completedFuture(deltasResponse(range, null));
+        // unless streaming, generate primes before writing the response so that errors are reported with proper status
+        return compute(() -> deltasResponse(range, findPrimes(range.getFrom(), range.getTo())));
+    }
+
+    private ResponseEntity<StreamingResponseBody> deltasResponse(Range range, PrimeSequence primes) {
+        StreamingResponseBody body = out -> {
+            PrimeDeltaWriter writer = new PrimeDeltaWriter(out);
+            if (primes != null) {
+                writer.write(primes);
+            } else {
+                try {
+                    forEachChunk(range.getFrom(), range.getTo(), chunk -> {
+                        try {
+                            writer.write(chunk);
+                            writer.flush(); // send each chunk to the client as soon as it is available
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(PrimeDeltaWriter.MEDIA_TYPE)).body(body);
+    }
+
+    /**
+     * Handler for 'getPrimes?stream=true' request that streams prime numbers in the requested range to the client
+     * as they are generated, i.e. one sieve segment at a time. The response has the same format as the one
+     * produced by {@link #getPrimes(String, String)}. Primes generated for streaming are not cached. If the generation
+     * fails once the first primes are sent, the connection is aborted, see {@link AsyncConfiguration}.
+     * @param fromStr range start (string)
+     * @param toStr range end (string)
+     * @return streaming response body
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/getPrimes", params = "stream=true",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamPrimes(
+            @RequestParam(value="from", defaultValue = "1") String fromStr,
+            @RequestParam(value="to", defaultValue="10000") String toStr) {
+
+        Range range = parseRange(fromStr, toStr);
+
+        StreamingResponseBody body = out -> {
+            JsonGenerator json = JSON_FACTORY.createGenerator(out);
+            json.writeStartObject();
+            json.writeArrayFieldStart("primes");
+            try {
+                forEachChunk(range.getFrom(), range.getTo(), chunk -> {
+                    try {
+                        for (int i = 0; i < chunk.size(); i++)
+                            json.writeNumber(chunk.get(i));
+                        json.flush(); // send each chunk to the client as soon as it is available
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Handler for 'countPrimes' request that returns the number of prime numbers in the requested range.
+     * The primes are counted without generating them, see {@link PrimeCounter}. Ranges ending beyond
+     * {@link PrimeCounter#MAX_ANALYTIC_LIMIT} can only be sieved, so they are rejected if they are wider than
+     * {@link PrimeCounter#MAX_SIEVE_WIDTH}.
+     * @param fromStr range start (string)
+     * @param toStr range end (string)
+     * @return future prime count result
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/countPrimes")
+    public CompletableFuture<PrimeCountResult> countPrimes(
+            @RequestParam(value="from", defaultValue = "1") String fromStr,
+            @RequestParam(value="to", defaultValue="10000") String toStr) {
+
+        Range range = parseRange(fromStr, toStr);
+        PrimeCounter.checkRange(range.getFrom(), range.getTo());
+        return compute(() -> new PrimeCountResult(PrimeCounter.count(range.getFrom(), range.getTo())));
+    }
+
+    /**
+     * Handler for 'nthPrime' request that returns the n-th prime number (the first prime is 2). Only a small window
+     * around the n-th prime is sieved, see {@link PrimeCounter#nthPrime(long)}. Indexes beyond
+     * {@link PrimeCounter#MAX_NTH_PRIME} are rejected.
+     * @param nStr index of the prime (string)
+     * @return future n-th prime result
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/nthPrime")
+    public CompletableFuture<NthPrimeResult> nthPrime(@RequestParam(value="n") String nStr) {
+        long n = Long.parseLong(nStr);
+        PrimeCounter.checkIndex(n);
+        return compute(() -> new NthPrimeResult(n, PrimeCounter.nthPrime(n)));
+    }
+
+    /**
+     * Handler for 'nthPrimes' request that returns the prime numbers with indexes in the requested range, i.e.
+     * the 'from'-th prime up to the 'to'-th prime (the first prime is 2). At most 1,000,000 primes can be requested,
+     * indexes beyond {@link PrimeCounter#MAX_NTH_PRIME} are rejected.
+     * @param fromStr index of the first prime (string)
+     * @param toStr index of the last prime (string)
+     * @return future prime number result
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/nthPrimes")
+    public CompletableFuture<PrimeResult> nthPrimes(
+            @RequestParam(value="from") String fromStr,
+            @RequestParam(value="to") String toStr) {
+
+        Range range = parseRange(fromStr, toStr);
+        PrimeCounter.checkIndex(range.getFrom());
+        PrimeCounter.checkIndex(range.getTo());
+        if (range.getTo() - range.getFrom() >= MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("Number of primes must not exceed " + MAX_PAGE_SIZE);
+        int count = (int)(range.getTo() - range.getFrom() + 1);
+        return compute(() -> {
+            long first = PrimeCounter.nthPrime(range.getFrom());
+            return new PrimeResult(findPage(first, Long.MAX_VALUE, count).getPrimes());
+        });
+    }
+
+    /**
+     * Handler for 'getPrimeTuples' request that returns a single page of prime k-tuples of the given pattern
+     * starting in the requested range, e.g. twin primes for pattern '0,2' (the default) or prime triplets for
+     * '0,2,6'. Inadmissible patterns (see {@link PrimeConstellations#checkPattern(int[])}) are rejected.
+     * Each k-tuple is represented by its first prime. The range is scanned inside the segmented sieve
+     * (see {@link PrimeConstellations}) until the page is full, the primes themselves are neither returned nor
+     * cached. The pages are requested as in {@link #getPrimePage(String, String, int, String)}. A single page scans
+     * at most 1,000,000,000 numbers, so a page of a sparse pattern may have fewer k-tuples than requested (even none)
+     * and still be followed by the next one.
+     * @param fromStr range start (string)
+     * @param toStr range end (string)
+     * @param patternStr comma separated offsets of the primes of a k-tuple, starting with 0
+     * @param pageSize maximum number of k-tuples in the page
+     * @param cursor cursor returned with the previous page or null for the first page
+     * @return future page of the first primes of the k-tuples
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/getPrimeTuples")
+    public CompletableFuture<PrimePageResult> getPrimeTuples(
+            @RequestParam(value="from", defaultValue = "1") String fromStr,
+            @RequestParam(value="to", defaultValue="10000") String toStr,
+            @RequestParam(value="pattern", defaultValue="0,2") String patternStr,
+            @RequestParam(value="pageSize", defaultValue="1000") int pageSize,
+            @RequestParam(value="cursor", required = false) String cursor) {
+
+        Range range = parseRange(fromStr, toStr);
+        int[] pattern = parsePattern(patternStr);
+        PrimeConstellations.checkPattern(pattern);
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("Page size must be in range [1.." + MAX_PAGE_SIZE + "]");
+        long start = range.getFrom();
+        if (cursor != null) {
+            // the cursor is the first prime of the last k-tuple of a full page or the end of the scan of the page
+            long last = Long.parseLong(cursor, Character.MAX_RADIX);
+            if (last < range.getFrom() || last >= range.getTo())
+                throw new IllegalArgumentException("Incorrect cursor");
+            start = last + 1;
+        }
+        long pageStart = start;
+        // there are no primes below zero, so the scan is only bounded from zero to avoid overflow
+        long scanStart = Math.max(pageStart, 0);
+        long scanEnd = range.getTo() - scanStart < MAX_TUPLE_SCAN_WIDTH ? range.getTo()
+                : scanStart + MAX_TUPLE_SCAN_WIDTH - 1;
+        PrimeConstellations.checkRange(pageStart, scanEnd);
+        return compute(() -> {
+            // the scan stops as soon as the page is full
+            PrimeSequence page = PrimeConstellations.findTuples(pageStart, scanEnd, pattern, pageSize);
+            long last = page.size() == pageSize ? page.get(pageSize - 1) : scanEnd;
+            String nextCursor = last < range.getTo() ? Long.toString(last, Character.MAX_RADIX) : null;
+            return new PrimePageResult(page, nextCursor);
+        });
+    }
+
+    /**
+     * Handler for 'countPrimeTuples' request that returns the number of prime k-tuples of the given pattern
+     * starting in the requested range, see {@link #getPrimeTuples(String, String, String, int, String)}.
+     * Ranges wider than {@link PrimeConstellations#MAX_SCAN_WIDTH} are rejected.
+     * @param fromStr range start (string)
+     * @param toStr range end (string)
+     * @param patternStr comma separated offsets of the primes of a k-tuple, starting with 0
+     * @return future k-tuple count result
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/countPrimeTuples")
+    public CompletableFuture<PrimeCountResult> countPrimeTuples(
+            @RequestParam(value="from", defaultValue = "1") String fromStr,
+            @RequestParam(value="to", defaultValue="10000") String toStr,
+            @RequestParam(value="pattern", defaultValue="0,2") String patternStr) {
+
+        Range range = parseRange(fromStr, toStr);
+        int[] pattern = parsePattern(patternStr);
+        PrimeConstellations.checkRange(range.getFrom(), range.getTo());
+        PrimeConstellations.checkPattern(pattern);
+        return compute(() -> new PrimeCountResult(
+                PrimeConstellations.countTuples(range.getFrom(), range.getTo(), pattern, executor)));
+    }
+
+    /**
+     * Handler for 'maxPrimeGap' request that returns the largest gap between consecutive primes in the requested
+     * range (the first one if there are more). The range is scanned inside the segmented sieve, in parallel
+     * on the compute executor, see {@link PrimeConstellations#maxGap(long, long, Executor)}. Ranges wider than
+     * {@link PrimeConstellations#MAX_SCAN_WIDTH} are rejected.
+     * @param fromStr range start (string)
+     * @param toStr range end (string)
+     * @return future prime gap result
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/maxPrimeGap")
+    public CompletableFuture<PrimeGapResult> maxPrimeGap(
+            @RequestParam(value="from", defaultValue = "1") String fromStr,
+            @RequestParam(value="to", defaultValue="10000") String toStr) {
+
+        Range range = parseRange(fromStr, toStr);
+        PrimeConstellations.checkRange(range.getFrom(), range.getTo());
+        return compute(
+                () -> new PrimeGapResult(PrimeConstellations.maxGap(range.getFrom(), range.getTo(), executor)));
+    }
+
+    /**
+     * Reject the request when the compute executor is saturated.
+     * @param e rejection
+     * @return response with 503 (Service Unavailable) status
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Void> handleRejection(RejectedExecutionException e) {
+        // Spring MVC handles the rejection of a streaming body twice, when it is thrown by the executor and again
+        // when it is dispatched as the result of the request, so only the first one is counted and reported
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request != null && request.getAttribute(REJECTED_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null)
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        if (request != null)
+            request.setAttribute(REJECTED_ATTRIBUTE, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+
+        rejectedRequests.increment();
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .build();
+    }
+
+    /**
+     * Reject the request with incorrect parameters.
+     * @param e failure
+     * @param response response
+     * @throws IOException if the error can not be sent
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public void handleIllegalArgument(IllegalArgumentException e, HttpServletResponse response) throws IOException {
+        response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+    }
+
+    /**
+     * Find all primes in the given range. The primes are taken from cache if available. Only the parts of the range
+     * missing in cache are generated (in parallel if there are multiple gaps) and added to the cache. Concurrent
+     * requests for the same parts share a single computation, see {@link InFlightRegistry}.
+     * @param from range start
+     * @param to range end
+     * @return sequence of primes
+     */
+    private PrimeSequence findPrimes(long from, long to) {
+        PrimeCacheLookup lookup = lookup(from, to);
+        if (lookup.isComplete())
+            return lookup.merge(Collections.emptyList());
+
+        List<PrimeSequence> gapPrimes = forEachParallel(lookup.getGaps(),
+                gap -> inFlight.generate(gap.getFrom(), gap.getTo(), (partFrom, partTo) -> {
+                    PrimeSequence primes = generator.generate(partFrom, partTo);
+                    cache.addAll(partFrom, partTo, primes);
+                    return primes;
+                }));
+        return lookup.merge(gapPrimes);
+    }
+
+    /**
+     * Sort the given ranges by start and merge them whenever they overlap or are separated by less than
+     * {@link #BATCH_MERGE_GAP} numbers.
+     * @param ranges requested ranges
+     * @return sorted disjoint merged ranges
+     */
+    private static List<Range> mergeBatch(List<Range> ranges) {
+        List<Range> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.naturalOrder());
+        List<Range> merged = new ArrayList<>();
+        long mergedFrom = sorted.get(0).getFrom();
+        long mergedTo = sorted.get(0).getTo();
+        for (Range range : sorted) {
+            // there are no primes below zero, so the difference is only taken from zero to avoid overflow
+            if (range.getFrom() > mergedTo && range.getFrom() - Math.max(mergedTo, 0) > BATCH_MERGE_GAP) {
+                merged.add(new Range(mergedFrom, mergedTo));
+                mergedFrom = range.getFrom();
+            }
+            mergedTo = Math.max(mergedTo, range.getTo());
+        }
+        merged.add(new Range(mergedFrom, mergedTo));
+        return merged;
+    }
+
+    /**
+     * Find all primes in each of the given ranges. The primes of each merged range are found
+     * by {@link #findPrimes(long, long)}, i.e. using (and filling) the cache.
+     * @param ranges requested ranges
+     * @param merged the ranges merged by {@link #mergeBatch(List)}
+     * @return results in the order of the requested ranges
+     */
+    private PrimeBatchResult findBatch(List<Range> ranges, List<Range> merged) {
+        List<PrimeSequence> mergedPrimes = forEachParallel(merged, range -> findPrimes(range.getFrom(), range.getTo()));
+
+        List<PrimeResult> results = new ArrayList<>(ranges.size());
+        for (Range range : ranges) {
+            // the merged ranges are sorted and disjoint, the last one starting at or before the range contains it
+            int i = Collections.binarySearch(merged, new Range(range.getFrom(), Long.MAX_VALUE));
+            PrimeSequence primes = mergedPrimes.get(i >= 0 ? i : -i - 2);
+            results.add(new PrimeResult(primes.subSequence(range.getFrom(), range.getTo())));
+        }
+        return new PrimeBatchResult(results);
+    }
+
+    /**
+     * Run the computation of a request on the compute executor. Unlike {@link CompletableFuture#supplyAsync}
+     * cancelling the returned future interrupts the computation. The future is stored in the attributes of
+     * the current request (if any), so it can be cancelled once the request times out.
+     * @param supplier computation
+     * @param <T> type of the result
+     * @return future result
+     * @throws RejectedExecutionException if the compute executor is saturated
+     */
+    private <T> CompletableFuture<T> compute(Supplier<T> supplier) {
+        Computation<T> computation = new Computation<>(supplier);
+        executor.execute(computation);
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request != null)
+            request.setAttribute(COMPUTATION_ATTRIBUTE, computation, RequestAttributes.SCOPE_REQUEST);
+        return computation;
+    }
+
+    /**
+     * Cancel the computation of the given request, if any, interrupting the compute thread running it. The sieves
+     * check the interruption once per segment, so the thread is released for the other requests shortly.
+     * @param request request
+     */
+    void cancelComputation(RequestAttributes request) {
+        Object computation = request.getAttribute(COMPUTATION_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (computation != null)
+            ((Future<?>)computation).cancel(true);
+    }
+
+    /**
+     * Apply the function to each of the given ranges, in parallel on the compute executor if there are more of them.
+     * The calling thread runs the tasks not started by the executor yet itself, so it only waits for the tasks
+     * running on other compute threads, never for the queued ones (which would deadlock once all compute threads
+     * wait), and the tasks rejected by the saturated executor are run as well.
+     * @param ranges ranges
+     * @param function function run for each range
+     * @return results in the order of the ranges
+     */
+    private List<PrimeSequence> forEachParallel(List<Range> ranges, Function<Range, PrimeSequence> function) {
+        List<FutureTask<PrimeSequence>> tasks = new ArrayList<>(ranges.size());
+        for (Range range : ranges)
+            tasks.add(new FutureTask<>(() -> function.apply(range)));
+        for (int i = 1; i < tasks.size(); i++) {
+            try {
+                executor.execute(tasks.get(i));
+            } catch (RejectedExecutionException e) {
+                // run by the calling thread below
+            }
+        }
+
+        List<PrimeSequence> results = new ArrayList<>(tasks.size());
+        for (FutureTask<PrimeSequence> task : tasks) {
+            // does nothing if the task has been started by a compute thread already
+            task.run();
+            try {
+                results.add(task.get());
+            } catch (InterruptedException e) {
+                // the request has been cancelled
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException)e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error)e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Find at most 'pageSize' first primes in the given range. The range is sieved in windows whose width is
+     * estimated from the density of primes, so usually a single window is required.
+     * @param from range start
+     * @param to range end
+     * @param pageSize maximum number of primes
+     * @return page of primes
+     */
+    private PrimePageResult findPage(long from, long to, int pageSize) {
+        PrimeSequence page = new PrimeSequence(pageSize);
+        boolean more = false;
+        for (long low = from; ; ) {
+            // the average gap between primes near x is ln(x)
+            long width = (long)((pageSize - page.size()) * Math.log(Math.max(low, 16)) * 1.1) + 1000;
+            long high = to - low < width ? to : low + width - 1;
+            PrimeSequence window = findPrimes(low, high);
+            int i = 0;
+            for (; i < window.size() && page.size() < pageSize; i++)
+                page.add(window.get(i));
+            // unless the window has primes left, only the numbers beyond the window may contain more primes
+            more = i < window.size() || high < to;
+            if (page.size() == pageSize || high == to)
+                break;
+            low = high + 1;
+        }
+
+        String nextCursor = more ? Long.toString(page.get(page.size() - 1), Character.MAX_RADIX) : null;
+        return new PrimePageResult(page, nextCursor);
+    }
+
+    /**
+     * Pass all primes in the given range to the consumer in ascending order, one sieve segment at a time.
+     * The primes are taken from cache if available, the parts of the range missing in cache are generated.
+     * The cached parts are decoded one segment at a time as well, so only a single segment of primes is held
+     * in memory at any moment.
+     * @param from range start
+     * @param to range end
+     * @param consumer consumer of prime number chunks
+     */
+    private void forEachChunk(long from, long to, Consumer<PrimeSequence> consumer) {
+        PrimeCacheLookup lookup = lookup(from, to);
+        List<Range> parts = lookup.getParts();
+        for (int i = 0; i < parts.size(); i++) {
+            if (lookup.isCached(i))
+                lookup.forEachCachedChunk(i, SieveOfEratosthenesSegmentedPrimeGenerator.SEGMENT_SIZE, consumer);
+            else
+                generator.generate(parts.get(i).getFrom(), parts.get(i).getTo(), consumer);
+        }
+    }
+
+    private PrimeCacheLookup lookup(long from, long to) {
+        PrimeCacheLookup lookup = cache.lookup(from, to);
+        if (lookup.isComplete())
+            cacheHits.increment();
+        else if (lookup.getGaps().size() < lookup.getParts().size())
+            cachePartialHits.increment();
+        else
+            cacheMisses.increment();
+        return lookup;
+    }
+
+    InstrumentedPrimeGenerator getGenerator() {
+        return generator;
+    }
+
+    PrimeCache getCache() {
+        return cache;
+    }
+
+    InFlightRegistry getInFlight() {
+        return inFlight;
+    }
+
+    ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    long getStreamTimeoutMillis() {
+        return streamTimeoutMillis;
+    }
+
+    long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    long getCachePartialHits() {
+        return cachePartialHits.sum();
+    }
+
+    long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    private static Range parseRange(String fromStr, String toStr) {
         long from = Long.parseLong(fromStr);
         long to = Long.parseLong(toStr);
 
         if (to < from)
             throw new IllegalArgumentException("Incorrect range");
 
-        List<Long> primes = cache.getPrimes(from, to);
-        if (primes == null) {
-            primes = generator.findAll(from, to);
-            cache.addAll(from, to, primes);
-            return new PrimeResult(primes);
-        } else {
-            System.out.println(Thread.currentThread().getName() + ": Found in cache: from " + from + " to " + to);
-            return new PrimeResult(primes);
-        }
+        return new Range(from, to);
+    }
+
+    private static int[] parsePattern(String patternStr) {
+        String[] offsets = patternStr.split(",");
+        int[] pattern = new int[offsets.length];
+        for (int i = 0; i < offsets.length; i++)
+            pattern[i] = Integer.parseInt(offsets[i].trim());
+        return pattern;
     }
 
+    /**
+     * Computation of a request run on the compute executor, cancelling the future interrupts the running task.
+     */
+    private static final class Computation<T> extends CompletableFuture<T> implements Runnable {
+        private final FutureTask<Void> task;
+
+        Computation(Supplier<T> supplier) {
+            task = new FutureTask<>(() -> {
+                try {
+                    complete(supplier.get());
+                } catch (Throwable e) {
+                    // wrapped the same way as by CompletableFuture.supplyAsync()
+                    completeExceptionally(new CompletionException(e));
+                }
+            }, null);
+        }
+
+        @Override
+        public void run() {
+            // does nothing if the computation has been cancelled while queued
+            task.run();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // cancelled first, so the failure of the interrupted task does not complete the future
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            task.cancel(true);
+            return cancelled;
+        }
+    }
 }
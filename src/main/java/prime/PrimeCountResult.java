@@ -0,0 +1,24 @@
+package prime;
+
+/**
+ * Represents a result of counting prime numbers in a requested range.
+ */
+public class PrimeCountResult {
+    private final long count;
+
+    /**
+     * Construct result object with the given number of primes.
+     * @param count number of primes
+     */
+    public PrimeCountResult(long count) {
+        this.count = count;
+    }
+
+    /**
+     * Return number of prime numbers
+     * @return number of prime numbers
+     */
+    public long getCount() {
+        return count;
+    }
+}
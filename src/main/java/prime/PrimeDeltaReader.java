@@ -0,0 +1,92 @@
+package prime;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decodes prime numbers written in compact binary format by {@link PrimeDeltaWriter}, i.e. the responses of
+ * 'getPrimes' request with 'Accept: application/x-prime-deltas' header.
+ *
+ * The class has no dependencies besides the JDK so it can be copied to the client code as is. Sample usage:
+ *
+ * <pre>
+ *     HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+ *     connection.setRequestProperty("Accept", "application/x-prime-deltas");
+ *     try (InputStream in = connection.getInputStream()) {
+ *         long[] primes = new PrimeDeltaReader(in).readAll();
+ *     }
+ * </pre>
+ *
+ * This class is not thread-safe.
+ */
+public class PrimeDeltaReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long previous;
+
+    /**
+     * Construct reader for the given input stream.
+     * @param in input stream
+     */
+    public PrimeDeltaReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Check whether there are more primes in the stream.
+     * @return true if there is at least one more prime
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean hasNext() throws IOException {
+        return position < limit || fill();
+    }
+
+    /**
+     * Read the next prime.
+     * @return prime number
+     * @throws IOException if an I/O error occurs or the stream ends prematurely
+     */
+    public long next() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position == limit && !fill())
+                throw new EOFException("Unexpected end of stream");
+            byte b = buffer[position++];
+            value |= (long)(b & 0x7F) << shift;
+            if (b >= 0) {
+                previous += value;
+                return previous;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    /**
+     * Read all remaining primes.
+     * @return array of prime numbers
+     * @throws IOException if an I/O error occurs
+     */
+    public long[] readAll() throws IOException {
+        long[] primes = new long[1024];
+        int size = 0;
+        while (hasNext()) {
+            if (size == primes.length)
+                primes = Arrays.copyOf(primes, size * 2);
+            primes[size++] = next();
+        }
+        return Arrays.copyOf(primes, size);
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer);
+        position = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
+}
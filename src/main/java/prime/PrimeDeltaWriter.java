@@ -0,0 +1,83 @@
+package prime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import prime.generator.PrimeSequence;
+
+/**
+ * Writes prime numbers in compact binary format identified by the {@link #MEDIA_TYPE} media type.
+ *
+ * The format is a sequence of unsigned LEB128 variable length integers (7 bits per byte, least significant group
+ * first, high bit set on all bytes but the last one). The first integer is the first prime number (the base),
+ * each subsequent integer is the gap between the prime number and the previous one. Since prime gaps are small
+ * most primes take one or two bytes. An empty stream represents an empty result.
+ *
+ * See {@link PrimeDeltaReader} for the decoder.
+ *
+ * This class is not thread-safe.
+ */
+public class PrimeDeltaWriter {
+    /**
+     * Media type of the format.
+     */
+    public static final String MEDIA_TYPE = "application/x-prime-deltas";
+
+    private static final int BUFFER_SIZE = 8192;
+    // the longest varint of a 64-bit number takes 10 bytes
+    private static final int MAX_VARINT_SIZE = 10;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private long previous;
+
+    /**
+     * Construct writer for the given output stream.
+     * @param out output stream
+     */
+    public PrimeDeltaWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Write all primes in the given sequence. Primes must be greater than all primes written before.
+     * @param primes sequence of primes
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(PrimeSequence primes) throws IOException {
+        for (int i = 0; i < primes.size(); i++)
+            write(primes.get(i));
+    }
+
+    /**
+     * Write a single prime. The prime must be greater than all primes written before.
+     * @param prime prime number
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(long prime) throws IOException {
+        if (position > BUFFER_SIZE - MAX_VARINT_SIZE)
+            flushBuffer();
+        long value = prime - previous;
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte)value;
+        previous = prime;
+    }
+
+    /**
+     * Write all buffered data and flush the underlying stream.
+     * @throws IOException if an I/O error occurs
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -0,0 +1,42 @@
+package prime;
+
+import prime.generator.PrimeGap;
+
+/**
+ * Represents a result of finding the largest gap between consecutive prime numbers in a requested range.
+ */
+public class PrimeGapResult {
+    private final PrimeGap gap;
+
+    /**
+     * Construct result object with the given gap.
+     * @param gap the largest gap or null if there are less than two primes in range
+     */
+    public PrimeGapResult(PrimeGap gap) {
+        this.gap = gap;
+    }
+
+    /**
+     * Return the prime the gap starts with
+     * @return prime number or null if there is no gap
+     */
+    public Long getStart() {
+        return gap != null ? gap.getStart() : null;
+    }
+
+    /**
+     * Return the prime the gap ends with
+     * @return prime number or null if there is no gap
+     */
+    public Long getEnd() {
+        return gap != null ? gap.getEnd() : null;
+    }
+
+    /**
+     * Return the length of the gap
+     * @return length or null if there is no gap
+     */
+    public Long getLength() {
+        return gap != null ? gap.getLength() : null;
+    }
+}
@@ -0,0 +1,120 @@
+package prime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import prime.generator.LatencyHistogram;
+import prime.generator.PlanningPrimeGenerator;
+import prime.generator.SieveMetrics;
+
+/**
+ * Operational metrics of the service exposed by the actuator 'metrics' endpoint.
+ *
+ * All values are collected with atomic counters on the request path and are only aggregated when the metrics
+ * are read. The metrics are:
+ *      - prime.generator.[class].* - number of requests, latency mean, percentiles and maximum (ms), number
+ *        of primes generated and primes generated per second of generation time
+ *      - prime.planner.[engine].* - number of requests sent to each engine, their latency mean, percentiles and
+ *        maximum (ms) and the calibrated cost per number of the engine, if the generator is
+ *        {@link PlanningPrimeGenerator}
+ *      - prime.sieve.segments - number of segments sieved
+ *      - prime.sieve.basePrimes - number of primes in the shared table of base primes
+ *      - prime.cache.* - number of hits, partial hits and misses, their ratios, the size of the cache (bytes) and
+ *        the number of ranges evicted from and not admitted to the cache
+ *      - prime.requests.* - number of requests being computed, waiting for a compute thread and rejected
+ *      - prime.inflight.* - number of ranges being computed, computed and shared by concurrent requests
+ */
+@Component
+public class PrimeMetrics implements PublicMetrics {
+    private final PrimeController controller;
+
+    /**
+     * Construct metrics of the given controller.
+     * @param controller controller
+     */
+    @Autowired
+    public PrimeMetrics(PrimeController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+
+        InstrumentedPrimeGenerator generator = controller.getGenerator();
+        LatencyHistogram latency = generator.getLatency();
+        String prefix = "prime.generator." + generator.getGenerator().getClass().getSimpleName();
+        metrics.add(new Metric<>(prefix + ".requests", latency.getCount()));
+        addLatency(metrics, prefix, latency);
+        metrics.add(new Metric<>(prefix + ".primes", generator.getPrimeCount()));
+        metrics.add(new Metric<>(prefix + ".primesPerSecond",
+                ratio(generator.getPrimeCount(), latency.getTotalNanos() / 1e9)));
+
+        if (generator.getGenerator() instanceof PlanningPrimeGenerator) {
+            PlanningPrimeGenerator planner = (PlanningPrimeGenerator)generator.getGenerator();
+            for (PlanningPrimeGenerator.Engine engine : PlanningPrimeGenerator.Engine.values()) {
+                String enginePrefix = "prime.planner." + metricName(engine);
+                metrics.add(new Metric<>(enginePrefix + ".requests", planner.getRequestCount(engine)));
+                addLatency(metrics, enginePrefix, planner.getLatency(engine));
+                metrics.add(new Metric<>(enginePrefix + ".nsPerNumber", planner.getNumberCost(engine)));
+            }
+        }
+
+        metrics.add(new Metric<>("prime.sieve.segments", SieveMetrics.getSegmentCount()));
+        metrics.add(new Metric<>("prime.sieve.basePrimes", SieveMetrics.getBasePrimeCount()));
+
+        long hits = controller.getCacheHits();
+        long partialHits = controller.getCachePartialHits();
+        long misses = controller.getCacheMisses();
+        long lookups = hits + partialHits + misses;
+        metrics.add(new Metric<>("prime.cache.hits", hits));
+        metrics.add(new Metric<>("prime.cache.partialHits", partialHits));
+        metrics.add(new Metric<>("prime.cache.misses", misses));
+        metrics.add(new Metric<>("prime.cache.hitRatio", ratio(hits, lookups)));
+        metrics.add(new Metric<>("prime.cache.partialHitRatio", ratio(partialHits, lookups)));
+        metrics.add(new Metric<>("prime.cache.size", controller.getCache().getSize()));
+        metrics.add(new Metric<>("prime.cache.evictions", controller.getCache().getEvictionCount()));
+        metrics.add(new Metric<>("prime.cache.rejections", controller.getCache().getRejectionCount()));
+
+        ThreadPoolExecutor executor = controller.getExecutor();
+        metrics.add(new Metric<>("prime.requests.active", executor.getActiveCount()));
+        metrics.add(new Metric<>("prime.requests.queued", executor.getQueue().size()));
+        metrics.add(new Metric<>("prime.requests.rejected", controller.getRejectedRequests()));
+
+        InFlightRegistry inFlight = controller.getInFlight();
+        metrics.add(new Metric<>("prime.inflight.ranges", inFlight.getInFlightCount()));
+        metrics.add(new Metric<>("prime.inflight.computations", inFlight.getComputationCount()));
+        metrics.add(new Metric<>("prime.inflight.deduplicated", inFlight.getDeduplicatedCount()));
+        return metrics;
+    }
+
+    private static void addLatency(List<Metric<?>> metrics, String prefix, LatencyHistogram latency) {
+        metrics.add(new Metric<>(prefix + ".latency.mean", latency.getMeanMillis()));
+        metrics.add(new Metric<>(prefix + ".latency.p50", latency.getPercentileMillis(0.5)));
+        metrics.add(new Metric<>(prefix + ".latency.p95", latency.getPercentileMillis(0.95)));
+        metrics.add(new Metric<>(prefix + ".latency.p99", latency.getPercentileMillis(0.99)));
+        metrics.add(new Metric<>(prefix + ".latency.max", latency.getMaxMillis()));
+    }
+
+    /**
+     * Get the metric name of the given engine, e.g. 'segmentedSieve' for SEGMENTED_SIEVE.
+     * @param engine engine
+     * @return name
+     */
+    private static String metricName(PlanningPrimeGenerator.Engine engine) {
+        StringBuilder name = new StringBuilder();
+        for (String word : engine.name().toLowerCase().split("_"))
+            name.append(name.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        return name.toString();
+    }
+
+    private static double ratio(double value, double total) {
+        return total == 0 ? 0 : value / total;
+    }
+}
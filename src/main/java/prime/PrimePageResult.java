@@ -0,0 +1,39 @@
+package prime;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import prime.generator.PrimeSequence;
+
+/**
+ * Represents a single page of prime numbers in a requested range.
+ */
+public class PrimePageResult {
+    private final PrimeSequence primes;
+    private final String nextCursor;
+
+    /**
+     * Construct result object with the given prime numbers.
+     * @param primes sequence of prime numbers
+     * @param nextCursor cursor of the next page or null if this is the last page
+     */
+    public PrimePageResult(PrimeSequence primes, String nextCursor) {
+        this.primes = primes;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Return sequence of prime numbers of the page
+     * @return sequence of prime numbers
+     */
+    @JsonSerialize(using = PrimeSequenceSerializer.class)
+    public PrimeSequence getPrimes() {
+        return primes;
+    }
+
+    /**
+     * Return opaque cursor to be passed to the request of the next page
+     * @return cursor or null if there are no more pages
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
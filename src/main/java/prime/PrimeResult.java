@@ -1,26 +1,28 @@
 package prime;
 
-import java.util.Collection;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import prime.generator.PrimeSequence;
 
 /**
  * Represents a result of a prime number generation for a requested range.
  */
 public class PrimeResult {
-    private final Collection<Long> primes;
+    private final PrimeSequence primes;
 
     /**
      * Construct result object with the given prime numbers.
-     * @param primes list of prime numbers
+     * @param primes sequence of prime numbers
      */
-    public PrimeResult(Collection<Long> primes) {
+    public PrimeResult(PrimeSequence primes) {
         this.primes = primes;
     }
 
     /**
-     * Return collection of all prime numbers
-     * @return collection of prime numbers
+     * Return sequence of all prime numbers
+     * @return sequence of prime numbers
      */
-    public Collection<Long> getPrimes() {
+    @JsonSerialize(using = PrimeSequenceSerializer.class)
+    public PrimeSequence getPrimes() {
         return primes;
     }
 }
@@ -0,0 +1,21 @@
+package prime;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import prime.generator.PrimeSequence;
+
+/**
+ * Serializes {@link PrimeSequence} as a JSON array of numbers without boxing the prime numbers.
+ */
+public class PrimeSequenceSerializer extends JsonSerializer<PrimeSequence> {
+    @Override
+    public void serialize(PrimeSequence primes, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartArray();
+        for (int i = 0; i < primes.size(); i++)
+            gen.writeNumber(primes.get(i));
+        gen.writeEndArray();
+    }
+}
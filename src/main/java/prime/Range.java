@@ -66,9 +66,9 @@ public class Range implements Comparable<Range> {
 
     @Override
     public int compareTo(Range other) {
-        int c =  (int)Math.signum(this.from - other.from);
+        int c = Long.compare(this.from, other.from);
         if (c == 0) {
-            c = (int)Math.signum(this.to - other.to);
+            c = Long.compare(this.to, other.to);
         }
         return c;
     }
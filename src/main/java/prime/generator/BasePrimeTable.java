@@ -0,0 +1,155 @@
+package prime.generator;
+
+import java.util.Arrays;
+
+/**
+ * Process-wide table of base primes, i.e. the primes up to sqrt(limit) required to sieve any range ending at limit.
+ *
+ * The table is shared by all generations and only grows: when a request needs primes beyond the current bound,
+ * only the numbers between the current bound and the new one are sieved (by the segmented sieve, using the primes
+ * already in the table) and appended to a copy of the table. Requests that fit into the current bound never wait
+ * for the extension and never sieve any base primes. The copy is allocated with the exact number of primes up to
+ * the new bound, counted by {@link PrimeCounter#pi(long)} beforehand, so it is neither grown nor trimmed.
+ *
+ * The primes are stored in an int[] as unsigned 32-bit integers, since the primes up to sqrt(Long.MAX_VALUE)
+ * exceed Integer.MAX_VALUE; use {@link Integer#toUnsignedLong(int)} to read them. The table holds about
+ * 50 million primes (200MB) when extended for ranges ending at 10^18 and about 146 million primes (585MB) at
+ * Long.MAX_VALUE. An extension holds the previous table and the new one at once, so the peak is about 585MB for
+ * the first range near Long.MAX_VALUE and at most twice as much if the table has been extended almost as far before.
+ * The table is never extended beyond {@link #getMaxBound()}, configurable by {@link #setMaxBound(long)}, so the ranges
+ * ending beyond its square are rejected by the sieves. {@link PlanningPrimeGenerator} sends them to the primality
+ * test instead, which needs no base primes.
+ *
+ * This class is thread-safe.
+ */
+public final class BasePrimeTable {
+    /**
+     * The largest bound ever required, i.e. sqrt(Long.MAX_VALUE).
+     */
+    public static final long MAX_BOUND = SegmentSieve.sqrt(Long.MAX_VALUE);
+
+    /**
+     * The initial bound of the table, i.e. the smallest bound the table can be limited to.
+     * The initial primes sieve any extension up to INITIAL_BOUND^2 > MAX_BOUND.
+     */
+    public static final long INITIAL_BOUND = 1 << 16;
+
+    // primes from 7 up to the bound in ascending order, never modified once published
+    private static volatile int[] primes = SieveOfEratosthenesPrimeGenerator.basePrimes((int)INITIAL_BOUND);
+    private static volatile long bound = INITIAL_BOUND;
+    private static volatile long maxBound = MAX_BOUND;
+
+    private BasePrimeTable() {
+    }
+
+    /**
+     * Get primes from 7 up to at least the given bound. The returned array may contain more primes, so the users
+     * stop at the first prime exceeding their bound. The array must not be modified.
+     * @param bound the largest prime required
+     * @return primes in ascending order, as unsigned integers
+     * @throws IllegalArgumentException if the table would have to be extended beyond {@link #getMaxBound()}
+     */
+    static int[] upTo(long bound) {
+        if (bound > BasePrimeTable.bound) {
+            if (!isAvailable(bound))
+                throw new IllegalArgumentException("Base primes beyond " + maxBound + " are not available");
+            extend(Math.min(bound, MAX_BOUND));
+        }
+        return primes;
+    }
+
+    /**
+     * Check whether the primes up to the given bound are in the table or the table may be extended up to it.
+     * @param bound the largest prime required
+     * @return true if the primes are available
+     */
+    static boolean isAvailable(long bound) {
+        return bound <= maxBound || bound <= BasePrimeTable.bound;
+    }
+
+    /**
+     * Check whether the ranges ending at the given limit can be sieved, i.e. whether the base primes up to
+     * sqrt(limit) are available.
+     * @param limit range end
+     * @throws IllegalArgumentException if the base primes are not available
+     */
+    public static void checkLimit(long limit) {
+        if (limit > 0 && !isAvailable(SegmentSieve.sqrt(limit))) {
+            throw new IllegalArgumentException("Range ending beyond " + maxBound + "^2 can not be sieved, "
+                    + "base primes are limited to " + maxBound);
+        }
+    }
+
+    /**
+     * Get the largest bound the table may be extended to.
+     * @return maximum bound
+     */
+    public static long getMaxBound() {
+        return maxBound;
+    }
+
+    /**
+     * Limit the bound the table may be extended to, e.g. to bound its memory. The primes already in the table
+     * stay available.
+     * @param maxBound maximum bound in range [{@link #INITIAL_BOUND}..{@link #MAX_BOUND}]
+     */
+    public static void setMaxBound(long maxBound) {
+        if (maxBound < INITIAL_BOUND || maxBound > MAX_BOUND) {
+            throw new IllegalArgumentException("Maximum bound must be in range [" + INITIAL_BOUND + ".."
+                    + MAX_BOUND + "]");
+        }
+        BasePrimeTable.maxBound = maxBound;
+    }
+
+    /**
+     * Get the bound up to which the table is complete.
+     * @return bound
+     */
+    static long getBound() {
+        return bound;
+    }
+
+    /**
+     * Get the number of primes in the table.
+     * @return number of primes
+     */
+    static int size() {
+        return primes.length;
+    }
+
+    private static synchronized void extend(long newBound) {
+        if (newBound <= bound)
+            return;
+
+        long start = bound + 1;
+        // round up to a whole segment, so a sequence of growing requests does not sieve a segment for each of them
+        long end = Math.min(MAX_BOUND, start + (newBound - start) / SegmentSieve.SEGMENT_SIZE * SegmentSieve.SEGMENT_SIZE
+                + SegmentSieve.SEGMENT_SIZE - 1);
+        // all primes up to sqrt(end) are already in the table
+        primes = extend(primes, start, end);
+        bound = end;
+    }
+
+    /**
+     * Sieve range [start..end] by the segmented sieve and append its primes to a copy of the given ones.
+     * This is the routine extending the table, also used to calibrate its cost, see {@link PlanningPrimeGenerator}.
+     * @param primes all primes from 7 below 'start', including the primes up to sqrt(end)
+     * @param start range start, greater than 5
+     * @param end range end
+     * @return primes from 7 up to 'end', as unsigned integers
+     */
+    static int[] extend(int[] primes, long start, long end) {
+        // the table holds all primes up to the bound but 2, 3 and 5
+        int[] extended = Arrays.copyOf(primes, (int)PrimeCounter.pi(end) - 3);
+        SegmentSieve sieve = new SegmentSieve(primes, start, end);
+        int size = primes.length;
+        PrimeSequence segment = new PrimeSequence();
+        while (sieve.hasNext()) {
+            segment.clear();
+            sieve.next(segment);
+            for (int i = 0; i < segment.size(); i++)
+                extended[size++] = (int)segment.get(i);
+        }
+        return extended;
+    }
+}
@@ -0,0 +1,95 @@
+package prime.generator;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with exponential buckets, i.e. bucket k counts latencies in range [2^(k-1)..2^k)
+ * microseconds. Recording a latency updates four uncontended atomic counters (the bucket, the count, the total
+ * and the maximum), percentiles are accurate up to the factor of two.
+ *
+ * This class is thread-safe.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Construct empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Record a latency.
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 0);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(micros)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     * @return number of latencies
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of all recorded latencies.
+     * @return total latency in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Get the maximum recorded latency.
+     * @return maximum latency in milliseconds
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Get the mean of the recorded latencies.
+     * @return mean latency in milliseconds or 0 if there are no latencies
+     */
+    public double getMeanMillis() {
+        long n = getCount();
+        return n == 0 ? 0 : getTotalNanos() / 1e6 / n;
+    }
+
+    /**
+     * Get the upper bound of the bucket containing the given percentile of latencies.
+     * @param percentile percentile in range [0..1]
+     * @return latency in milliseconds or 0 if there are no latencies
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        long rank = (long)Math.ceil(percentile * n);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank && counts[i] > 0)
+                return Math.min(Math.pow(2, i), getMaxMillis() * 1000) / 1000;
+        }
+        return 0;
+    }
+}
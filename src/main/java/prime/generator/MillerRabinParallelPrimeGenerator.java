@@ -0,0 +1,85 @@
+package prime.generator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Implementation of prime number generator testing each candidate with {@link PrimalityTester} with parallel
+ * computation.
+ *
+ * Unlike the sieves and the trial division this generator does not need any base primes, so the cost of a request
+ * depends on the number of candidates only and not on sqrt(limit). This makes it the best choice for sparse or
+ * narrow ranges at very high offsets. Only the candidates coprime to 30 are tested. The range is split into one
+ * chunk per processor, the chunks are tested in parallel on the given executor (the common {@link ForkJoinPool}
+ * by default), see {@link ParallelTasks}.
+ *
+ * This generator can generate prime numbers in range [1..Long.MAX_VALUE].
+ *
+ * The time complexity is O((limit - from) log^3 limit).
+ */
+public class MillerRabinParallelPrimeGenerator implements PrimeGenerator {
+
+    private static final int WHEEL_SIZE = WheelBitmap.WHEEL_SIZE;
+    private static final long[] RESIDUES = {1, 7, 11, 13, 17, 19, 23, 29};
+
+    private final Executor executor;
+
+    /**
+     * Construct generator testing on the common pool.
+     */
+    public MillerRabinParallelPrimeGenerator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Construct generator testing on the given executor.
+     * @param executor executor of the chunks
+     */
+    public MillerRabinParallelPrimeGenerator(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public PrimeSequence generate(long limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Limit must be greater than zero");
+
+        return generate(1, limit);
+    }
+
+    @Override
+    public PrimeSequence generate(long from, long limit) {
+        if (limit < from)
+            throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
+
+        // The candidates are coprime to 30 so we need to include primes 2, 3, 5 if they are in range
+        PrimeSequence primes = new PrimeSequence();
+        WheelBitmap.appendWheelPrimes(from, limit, primes);
+        if (limit < 2)
+            return primes;
+
+        long start = Math.max(from, 0);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long chunkSize = (limit - start) / parallelism + 1;
+        ParallelTasks.forEachOrdered((limit - start) / chunkSize + 1, i -> {
+            long low = start + i * chunkSize;
+            long high = limit - low < chunkSize ? limit : low + chunkSize - 1;
+            return () -> testRange(low, high);
+        }, executor, parallelism, primes::addAll);
+        return primes;
+    }
+
+    private static PrimeSequence testRange(long from, long limit) {
+        PrimeSequence primes = new PrimeSequence();
+        // Test all numbers coprime to 30 in range [from..limit] as candidates for primes
+        for (long q = from / WHEEL_SIZE; q <= limit / WHEEL_SIZE; q++) {
+            for (long r : RESIDUES) {
+                // the candidates beyond Long.MAX_VALUE in the last wheel overflow and are skipped as below 'from'
+                long n = q * WHEEL_SIZE + r;
+                if (n >= from && n <= limit && PrimalityTester.isPrime(n))
+                    primes.add(n);
+            }
+        }
+        return primes;
+    }
+}
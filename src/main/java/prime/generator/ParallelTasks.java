@@ -0,0 +1,88 @@
+package prime.generator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Runs the parts of a computation in parallel on an executor given by the user, e.g. the bounded compute executor
+ * of the service.
+ *
+ * The tasks are submitted to the executor, but the calling thread runs each task not started by the executor yet
+ * itself when it needs its result. So the caller only waits for the tasks running on other threads, never for
+ * the queued ones (which would deadlock if the caller is one of the executor threads and all of them wait), and
+ * the tasks rejected by a saturated executor are run as well. The number of tasks submitted at once is bounded,
+ * so a single computation never floods the queue of the executor.
+ */
+final class ParallelTasks {
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Run the given number of tasks keeping at most 'maxPending' of them submitted at once and pass their results
+     * to the consumer on the calling thread in the order of the tasks. If a task or the consumer fails, the tasks
+     * not started yet are cancelled.
+     * @param count number of tasks
+     * @param tasks factory of the i-th task
+     * @param executor executor
+     * @param maxPending maximum number of tasks submitted at once
+     * @param consumer consumer of the results
+     * @param <T> type of the results
+     */
+    static <T> void forEachOrdered(long count, LongFunction<Callable<T>> tasks, Executor executor, int maxPending,
+                                   Consumer<? super T> consumer) {
+        Deque<FutureTask<T>> pending = new ArrayDeque<>(maxPending);
+        try {
+            for (long i = 0; i < count; i++) {
+                FutureTask<T> task = new FutureTask<>(tasks.apply(i));
+                pending.add(task);
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // run by the calling thread once its result is needed
+                }
+                if (pending.size() >= maxPending)
+                    consumer.accept(join(pending.poll()));
+            }
+            while (!pending.isEmpty())
+                consumer.accept(join(pending.poll()));
+        } finally {
+            // the tasks already started by the executor are completed, the queued ones do nothing once started
+            for (FutureTask<T> task : pending)
+                task.cancel(false);
+        }
+    }
+
+    /**
+     * Get the result of the given task, running it on the calling thread if it has not been started yet.
+     * The failure of the task is rethrown as is if it is unchecked.
+     * @param task task
+     * @param <T> type of the result
+     * @return result
+     * @throws CancellationException if the calling thread is interrupted while waiting
+     */
+    static <T> T join(FutureTask<T> task) {
+        // does nothing if the task has been started by the executor already
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error)e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
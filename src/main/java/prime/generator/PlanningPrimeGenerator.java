@@ -0,0 +1,236 @@
+package prime.generator;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Prime number generator choosing the cheapest algorithm for each request.
+ *
+ * The cost of each engine is estimated from the range start, the range end and the width of the range:
+ *      - {@link Engine#SIEVE} - plain sieve, always sieves from zero: c * limit, only up to Integer.MAX_VALUE - 1
+ *      - {@link Engine#SEGMENTED_SIEVE} - sieves the window only: c * width + c' * sqrt(limit) for the base primes
+ *        missing from the shared {@link BasePrimeTable} + c'' * pi(sqrt(limit)) per segment for the offsets of
+ *        the base primes
+ *      - {@link Engine#PARALLEL_SIEVE} - as the segmented sieve, with the window and the offsets split between cores,
+ *        only for ranges wider than a single batch of segments
+ *      - {@link Engine#PRIMALITY_TEST} - tests each candidate, no base primes: c * width
+ *
+ * Ranges whose base primes exceed {@link BasePrimeTable#getMaxBound()} can not be sieved, so they are always sent
+ * to the primality test.
+ *
+ * The constants of the cost model are calibrated by a short micro-benchmark of each engine when the generator is
+ * constructed (i.e. at startup), so the thresholds between the engines reflect the actual hardware. The number of
+ * requests sent to each engine and their latencies are available through {@link #getRequestCount(Engine)} and
+ * {@link #getLatency(Engine)}.
+ *
+ * This class is thread-safe.
+ */
+public class PlanningPrimeGenerator implements PrimeGenerator {
+    /**
+     * Algorithms the generator chooses from.
+     */
+    public enum Engine {
+        SIEVE, SEGMENTED_SIEVE, PARALLEL_SIEVE, PRIMALITY_TEST
+    }
+
+    private static final int CALIBRATION_RUNS = 3;
+    private static final int CALIBRATION_LIMIT = 1 << 22;
+    private static final long CALIBRATION_OFFSET = 1L << 44;
+    private static final long CALIBRATION_PARALLEL_WIDTH = 1L << 25;
+    private static final long CALIBRATION_PRIMALITY_OFFSET = 1_000_000_000_000_000_000L;
+    private static final long CALIBRATION_PRIMALITY_WIDTH = 30_000;
+
+    private final Map<Engine, PrimeGenerator> engines = new EnumMap<>(Engine.class);
+    private final Map<Engine, LongAdder> requests = new EnumMap<>(Engine.class);
+    private final Map<Engine, LatencyHistogram> latencies = new EnumMap<>(Engine.class);
+    private final int parallelism;
+
+    // costs in nanoseconds
+    private final double sieveCost;              // per number up to the limit sieved by the plain sieve
+    private final double segmentCost;            // per number of the window sieved by the segmented sieve
+    private final double parallelSegmentCost;    // per number of the window sieved by the parallel sieve
+    private final double basePrimeCost;          // per number up to sqrt(limit) sieved for the base primes
+    private final double segmentStartCost;       // per base prime per segment
+    private final double primalityTestCost;      // per number of the window tested
+
+    /**
+     * Construct generator running the parallel engines on the common pool, calibrating the cost model on all
+     * available processors.
+     */
+    public PlanningPrimeGenerator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Construct generator running the parallel engines on the given executor, calibrating the cost model on all
+     * available processors.
+     * @param executor executor of the parallel engines
+     */
+    public PlanningPrimeGenerator(Executor executor) {
+        engines.put(Engine.SIEVE, new SieveOfEratosthenesPrimeGenerator());
+        engines.put(Engine.SEGMENTED_SIEVE, new SieveOfEratosthenesSegmentedPrimeGenerator());
+        engines.put(Engine.PARALLEL_SIEVE, new SieveOfEratosthenesParallelSegmentedPrimeGenerator(executor));
+        engines.put(Engine.PRIMALITY_TEST, new MillerRabinParallelPrimeGenerator(executor));
+        for (Engine engine : Engine.values()) {
+            requests.put(engine, new LongAdder());
+            latencies.put(engine, new LatencyHistogram());
+        }
+        parallelism = Runtime.getRuntime().availableProcessors();
+
+        sieveCost = measure(() -> engines.get(Engine.SIEVE).generate(CALIBRATION_LIMIT)) / CALIBRATION_LIMIT;
+        segmentCost = measure(() -> engines.get(Engine.SEGMENTED_SIEVE).generate(1, CALIBRATION_LIMIT))
+                / CALIBRATION_LIMIT;
+        // the same routine as the extension of the shared table, from its initial bound
+        int[] initialPrimes = SieveOfEratosthenesPrimeGenerator.basePrimes((int)BasePrimeTable.INITIAL_BOUND);
+        basePrimeCost = measure(() -> BasePrimeTable.extend(initialPrimes, BasePrimeTable.INITIAL_BOUND + 1,
+                CALIBRATION_LIMIT)) / (CALIBRATION_LIMIT - BasePrimeTable.INITIAL_BOUND);
+        // a single number at 2^44 needs one segment, the base primes up to 2^22 are in the shared table after
+        // the warm-up run
+        segmentStartCost = measure(() -> engines.get(Engine.SEGMENTED_SIEVE)
+                .generate(CALIBRATION_OFFSET, CALIBRATION_OFFSET)) / pi(CALIBRATION_LIMIT);
+        parallelSegmentCost = measure(() -> engines.get(Engine.PARALLEL_SIEVE)
+                .generate(1, CALIBRATION_PARALLEL_WIDTH)) / CALIBRATION_PARALLEL_WIDTH;
+        primalityTestCost = measure(() -> engines.get(Engine.PRIMALITY_TEST)
+                .generate(CALIBRATION_PRIMALITY_OFFSET, CALIBRATION_PRIMALITY_OFFSET + CALIBRATION_PRIMALITY_WIDTH))
+                / CALIBRATION_PRIMALITY_WIDTH;
+    }
+
+    /**
+     * Get the shortest time of a few runs of the given task, not including the first (warm-up) run.
+     * @return time in nanoseconds
+     */
+    private static double measure(Runnable task) {
+        task.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_RUNS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the number of primes up to the given limit.
+     */
+    private static double pi(double x) {
+        return x < 3 ? 1 : x / Math.log(x);
+    }
+
+    /**
+     * Choose the cheapest engine for the given range.
+     * @param from range start
+     * @param limit range end
+     * @return engine
+     */
+    public Engine plan(long from, long limit) {
+        if (limit > 0 && !BasePrimeTable.isAvailable(SegmentSieve.sqrt(limit)))
+            return Engine.PRIMALITY_TEST;
+
+        double width = (double)limit - Math.max(from, 0) + 1;
+        double sqrt = Math.sqrt((double)limit);
+        double segments = width / SegmentSieve.SEGMENT_SIZE + 1;
+        // only the base primes missing from the shared table are sieved
+        double basePrimes = basePrimeCost * Math.max(0, sqrt - BasePrimeTable.getBound());
+        double segmentStarts = segmentStartCost * pi(sqrt) * segments;
+
+        Engine best = Engine.SEGMENTED_SIEVE;
+        double bestCost = segmentCost * width + basePrimes + segmentStarts;
+        if (limit >= 1 && limit <= Integer.MAX_VALUE - 1 && sieveCost * limit < bestCost) {
+            best = Engine.SIEVE;
+            bestCost = sieveCost * limit;
+        }
+        // a range within a single batch is sieved by a single task
+        double parallelCost = parallelSegmentCost * width + basePrimes + segmentStarts / parallelism;
+        if (parallelism > 1 && width > SieveOfEratosthenesParallelSegmentedPrimeGenerator.BATCH_SIZE
+                && parallelCost < bestCost) {
+            best = Engine.PARALLEL_SIEVE;
+            bestCost = parallelCost;
+        }
+        if (primalityTestCost * width < bestCost)
+            best = Engine.PRIMALITY_TEST;
+        return best;
+    }
+
+    @Override
+    public PrimeSequence generate(long limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Limit must be greater than zero");
+
+        return generate(1, limit);
+    }
+
+    @Override
+    public PrimeSequence generate(long from, long limit) {
+        if (limit < from)
+            throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
+
+        Engine engine = engine(from, limit);
+        long start = System.nanoTime();
+        PrimeSequence result = engines.get(engine).generate(from, limit);
+        latencies.get(engine).record(System.nanoTime() - start);
+        return result;
+    }
+
+    @Override
+    public void generate(long from, long limit, Consumer<PrimeSequence> consumer) {
+        if (limit < from)
+            throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
+
+        Engine engine = engine(from, limit);
+        long start = System.nanoTime();
+        try {
+            engines.get(engine).generate(from, limit, consumer);
+        } finally {
+            // the time includes the time spent by the consumer, e.g. writing the response
+            latencies.get(engine).record(System.nanoTime() - start);
+        }
+    }
+
+    private Engine engine(long from, long limit) {
+        Engine engine = plan(from, limit);
+        requests.get(engine).increment();
+        return engine;
+    }
+
+    /**
+     * Get the number of requests sent to the given engine.
+     * @param engine engine
+     * @return number of requests
+     */
+    public long getRequestCount(Engine engine) {
+        return requests.get(engine).sum();
+    }
+
+    /**
+     * Get the histogram of latencies of the requests sent to the given engine.
+     * @param engine engine
+     * @return latency histogram
+     */
+    public LatencyHistogram getLatency(Engine engine) {
+        return latencies.get(engine);
+    }
+
+    /**
+     * Get the calibrated cost of a single number of the requested range sent to the given engine, not including
+     * the cost of the base primes and of the segments. The plain sieve sieves all numbers up to the limit.
+     * @param engine engine
+     * @return cost in nanoseconds
+     */
+    public double getNumberCost(Engine engine) {
+        switch (engine) {
+            case SIEVE:
+                return sieveCost;
+            case SEGMENTED_SIEVE:
+                return segmentCost;
+            case PARALLEL_SIEVE:
+                return parallelSegmentCost;
+            default:
+                return primalityTestCost;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package prime.generator;
+
+/**
+ * Deterministic primality test for the full range of positive long numbers.
+ *
+ * Numbers are tested using Miller-Rabin test with the first 12 primes as bases, which is known to produce no
+ * false positives for all numbers below 3.3 * 10^24, i.e. well beyond Long.MAX_VALUE. Modular multiplication
+ * uses Montgomery reduction with 128-bit intermediate products, so it never overflows.
+ *
+ * The time complexity is O(log^3 n) per number.
+ *
+ * This class is thread-safe.
+ */
+public final class PrimalityTester {
+
+    private static final int[] BASES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+    private static final long LOW_MASK = 0xFFFFFFFFL;
+
+    private PrimalityTester() {
+    }
+
+    /**
+     * Test whether the given number is prime.
+     * @param n number to test
+     * @return true if the number is prime
+     */
+    public static boolean isPrime(long n) {
+        if (n < 2)
+            return false;
+        for (int p : BASES) {
+            if (n % p == 0)
+                return n == p;
+        }
+        // all composites below the square of the largest base have a factor among the bases
+        if (n < (long)BASES[BASES.length - 1] * BASES[BASES.length - 1])
+            return true;
+
+        // n - 1 = d * 2^s where d is odd
+        int s = Long.numberOfTrailingZeros(n - 1);
+        long d = (n - 1) >>> s;
+
+        Montgomery m = new Montgomery(n);
+        long minusOne = n - m.one;
+        for (int a : BASES) {
+            long x = m.pow(m.toMontgomery(a), d);
+            if (x == m.one || x == minusOne)
+                continue;
+            boolean composite = true;
+            for (int r = 1; r < s && composite; r++) {
+                x = m.multiply(x, x);
+                composite = x != minusOne;
+            }
+            if (composite)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the high 64 bits of the unsigned 128-bit product of the given numbers.
+     */
+    static long multiplyHighUnsigned(long a, long b) {
+        long a0 = a & LOW_MASK, a1 = a >>> 32;
+        long b0 = b & LOW_MASK, b1 = b >>> 32;
+        long p00 = a0 * b0;
+        long p01 = a0 * b1;
+        long p10 = a1 * b0;
+        long p11 = a1 * b1;
+        long middle = (p00 >>> 32) + (p01 & LOW_MASK) + (p10 & LOW_MASK);
+        return p11 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+
+    /**
+     * Montgomery arithmetic modulo an odd number n < 2^63 with R = 2^64.
+     * Numbers in Montgomery form are always fully reduced, i.e. in range [0..n-1].
+     */
+    private static final class Montgomery {
+        private final long n;
+        // -n^-1 mod 2^64
+        private final long nPrime;
+        // R^2 mod n
+        private final long r2;
+        // 1 in Montgomery form, i.e. R mod n
+        private final long one;
+
+        Montgomery(long n) {
+            this.n = n;
+            // Newton's iteration, each step doubles the number of correct low bits (n * n = 1 mod 8 for odd n)
+            long inverse = n;
+            for (int i = 0; i < 5; i++)
+                inverse *= 2 - n * inverse;
+            nPrime = -inverse;
+
+            one = Long.remainderUnsigned(-n, n);
+            long r = one;
+            for (int i = 0; i < 64; i++) {
+                r <<= 1;
+                if (Long.compareUnsigned(r, n) >= 0)
+                    r -= n;
+            }
+            r2 = r;
+        }
+
+        long toMontgomery(long a) {
+            return multiply(a % n, r2);
+        }
+
+        long multiply(long a, long b) {
+            return reduce(multiplyHighUnsigned(a, b), a * b);
+        }
+
+        long pow(long base, long exponent) {
+            long result = one;
+            while (exponent != 0) {
+                if ((exponent & 1) != 0)
+                    result = multiply(result, base);
+                base = multiply(base, base);
+                exponent >>>= 1;
+            }
+            return result;
+        }
+
+        /**
+         * Montgomery reduction of the 128-bit number T = high * 2^64 + low < n * 2^64, i.e. T * R^-1 mod n.
+         */
+        private long reduce(long high, long low) {
+            long m = low * nPrime;
+            // low + low(m * n) = 0 mod 2^64, so it carries into the high part unless low is zero
+            long t = high + multiplyHighUnsigned(m, n) + (low != 0 ? 1 : 0);
+            // t < 2n < 2^64 so the comparison must be unsigned
+            if (Long.compareUnsigned(t, n) >= 0)
+                t -= n;
+            return t;
+        }
+    }
+}
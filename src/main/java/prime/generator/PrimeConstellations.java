@@ -0,0 +1,329 @@
+package prime.generator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Finds prime constellations in a range without generating the full list of primes, i.e. prime k-tuples
+ * (e.g. twin primes p, p + 2 or prime triplets p, p + 2, p + 6) and gaps between consecutive primes.
+ *
+ * The range is sieved by the segmented sieve and the primes of each segment are scanned as soon as the segment is
+ * sieved, so only a single segment of primes is held in memory at any moment. The primes at the end of a segment
+ * that may start a k-tuple completed in the next segment are carried over to it, as is the last prime for the gaps.
+ * Only the matches (or their number) are returned.
+ *
+ * Counting k-tuples and finding the maximal gap split wide ranges into chunks scanned in parallel on the given
+ * executor (the common {@link ForkJoinPool} by default), see {@link ParallelTasks}. Each chunk also sieves
+ * the numbers beyond its end required to complete the k-tuples starting in it, the gaps between the chunks
+ * are taken into account when the results of the chunks are combined.
+ *
+ * This class is thread-safe.
+ */
+public final class PrimeConstellations {
+    /**
+     * The largest offset allowed in a k-tuple pattern.
+     */
+    public static final int MAX_PATTERN_WIDTH = 1000;
+
+    /**
+     * The widest range k-tuples are counted or gaps are found in, as for the prime count of the ranges that can only
+     * be sieved (see {@link PrimeCounter#MAX_SIEVE_WIDTH}).
+     */
+    public static final long MAX_SCAN_WIDTH = PrimeCounter.MAX_SIEVE_WIDTH;
+
+    private static final long CHUNK_SIZE = 1L << 26;
+
+    private PrimeConstellations() {
+    }
+
+    /**
+     * Find the k-tuples of the given pattern starting in the given range, i.e. the primes p in range such that
+     * p + offset is prime for each offset of the pattern. Only the first 'maxCount' k-tuples are found, the scan
+     * stops as soon as they are.
+     * @param from range start
+     * @param limit range end
+     * @param pattern offsets of the primes of a k-tuple, starting with 0 in ascending order, e.g. {0, 2} for twins
+     * @param maxCount maximum number of k-tuples
+     * @return the first prime of each k-tuple in ascending order
+     */
+    public static PrimeSequence findTuples(long from, long limit, int[] pattern, int maxCount) {
+        checkLimit(from, limit);
+        checkPattern(pattern);
+
+        PrimeSequence tuples = new PrimeSequence();
+        if (maxCount > 0) {
+            scanTuples(from, limit, pattern, p -> {
+                tuples.add(p);
+                return tuples.size() < maxCount;
+            });
+        }
+        return tuples;
+    }
+
+    /**
+     * Count the k-tuples of the given pattern starting in the given range on the common pool, see
+     * {@link #countTuples(long, long, int[], Executor)}.
+     * @param from range start
+     * @param limit range end
+     * @param pattern offsets of the primes of a k-tuple, starting with 0 in ascending order
+     * @return number of k-tuples
+     */
+    public static long countTuples(long from, long limit, int[] pattern) {
+        return countTuples(from, limit, pattern, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Count the k-tuples of the given pattern starting in the given range, see
+     * {@link #findTuples(long, long, int[], int)}. The chunks of the range are scanned on the given executor.
+     * @param from range start
+     * @param limit range end
+     * @param pattern offsets of the primes of a k-tuple, starting with 0 in ascending order
+     * @param executor executor of the chunks
+     * @return number of k-tuples
+     */
+    public static long countTuples(long from, long limit, int[] pattern, Executor executor) {
+        checkRange(from, limit);
+        checkPattern(pattern);
+
+        long[] total = new long[1];
+        forEachChunk(from, limit, (chunkFrom, chunkTo) -> {
+            long[] count = new long[1];
+            scanTuples(chunkFrom, chunkTo, pattern, p -> {
+                count[0]++;
+                return true;
+            });
+            return count[0];
+        }, executor, count -> total[0] += count);
+        return total[0];
+    }
+
+    /**
+     * Find the largest gap between consecutive primes in the given range, i.e. the primes p < q in range with no
+     * primes between them and the greatest q - p. If there are multiple such gaps, the first one is returned.
+     * @param from range start
+     * @param limit range end
+     * @return gap or null if there are less than two primes in range
+     */
+    public static PrimeGap maxGap(long from, long limit) {
+        return maxGap(from, limit, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Find the largest gap between consecutive primes in the given range, see {@link #maxGap(long, long)}.
+     * The chunks of the range are scanned on the given executor.
+     * @param from range start
+     * @param limit range end
+     * @param executor executor of the chunks
+     * @return gap or null if there are less than two primes in range
+     */
+    public static PrimeGap maxGap(long from, long limit, Executor executor) {
+        checkRange(from, limit);
+
+        GapScan result = new GapScan();
+        forEachChunk(from, limit, PrimeConstellations::scanGaps, executor, scan -> {
+            if (scan.last < 0)
+                return;
+            if (result.last >= 0)
+                result.accept(new PrimeGap(result.last, scan.first));
+            if (scan.max != null)
+                result.accept(scan.max);
+            result.last = scan.last;
+        });
+        return result.max;
+    }
+
+    /**
+     * Check whether the given k-tuple pattern can be scanned for, i.e. whether it starts with 0, it is strictly
+     * ascending up to {@link #MAX_PATTERN_WIDTH} and it is admissible. A pattern is admissible if its offsets do not
+     * cover all residues modulo any prime, otherwise one of the members of each k-tuple (but a few smallest ones)
+     * is divisible by that prime, e.g. {0, 1, 2} or {0, 2, 4}.
+     * @param pattern offsets of the primes of a k-tuple
+     * @throws IllegalArgumentException if the pattern can not be scanned for
+     */
+    public static void checkPattern(int[] pattern) {
+        boolean valid = pattern.length > 0 && pattern[0] == 0 && pattern[pattern.length - 1] <= MAX_PATTERN_WIDTH;
+        for (int i = 1; i < pattern.length && valid; i++)
+            valid = pattern[i] > pattern[i - 1];
+        if (!valid) {
+            throw new IllegalArgumentException("Pattern must start with 0 and be strictly ascending up to "
+                    + MAX_PATTERN_WIDTH);
+        }
+        // k offsets can only cover all residues modulo the primes up to k
+        for (int q = 2; q <= pattern.length; q++) {
+            if (!PrimalityTester.isPrime(q))
+                continue;
+            boolean[] covered = new boolean[q];
+            int residues = 0;
+            for (int offset : pattern) {
+                if (!covered[offset % q]) {
+                    covered[offset % q] = true;
+                    residues++;
+                }
+            }
+            if (residues == q)
+                throw new IllegalArgumentException("Pattern is not admissible, it covers all residues modulo " + q);
+        }
+    }
+
+    /**
+     * Check whether k-tuples can be counted or gaps can be found in the given range, i.e. whether it is not empty,
+     * it is not wider than {@link #MAX_SCAN_WIDTH} and its base primes are available, see
+     * {@link BasePrimeTable#checkLimit(long)}. The k-tuples found by {@link #findTuples(long, long, int[], int)}
+     * are not limited by the width, as the scan stops once they are found.
+     * @param from range start
+     * @param limit range end
+     * @throws IllegalArgumentException if the range can not be scanned
+     */
+    public static void checkRange(long from, long limit) {
+        checkLimit(from, limit);
+        // there are no primes below zero, so the width is only taken from zero to avoid overflow
+        if (limit - Math.max(from, 0) >= MAX_SCAN_WIDTH)
+            throw new IllegalArgumentException("Range must not be wider than " + MAX_SCAN_WIDTH);
+    }
+
+    private static void checkLimit(long from, long limit) {
+        if (limit < from)
+            throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
+        BasePrimeTable.checkLimit(limit);
+    }
+
+    /**
+     * Split the given range into chunks, scan them in parallel on the given executor and pass the results
+     * of the chunks to the consumer on the calling thread in ascending order of the chunks.
+     */
+    private static <T> void forEachChunk(long from, long limit, ChunkScan<T> scan, Executor executor,
+                                         Consumer<? super T> consumer) {
+        long start = Math.max(from, 0);
+        long count = limit < start ? 1 : (limit - start) / CHUNK_SIZE + 1;
+        ParallelTasks.forEachOrdered(count, i -> {
+            long chunkFrom = start + i * CHUNK_SIZE;
+            long chunkTo = limit - chunkFrom < CHUNK_SIZE ? limit : chunkFrom + CHUNK_SIZE - 1;
+            long scanFrom = i == 0 ? from : chunkFrom;
+            return () -> scan.scan(scanFrom, chunkTo);
+        }, executor, 2 * Runtime.getRuntime().availableProcessors(), consumer);
+    }
+
+    /**
+     * Pass the primes in the given range to the consumer one segment at a time, in ascending order.
+     * The scan stops when the consumer returns false. The sequence is reused for all segments.
+     * The range is sieved in windows of a chunk, each using the base primes up to the square root of its own end,
+     * so a scan stopped early does not require the base primes for the whole range.
+     */
+    private static void forEachSegment(long from, long limit, Predicate<PrimeSequence> consumer) {
+        if (limit < 2)
+            return;
+
+        long start = Math.max(from, 0);
+        PrimeSequence primes = new PrimeSequence();
+        // The sieve does not produce primes 2, 3, 5 so we need to add them to the first segment
+        WheelBitmap.appendWheelPrimes(start, limit, primes);
+        for (long low = start; ; ) {
+            long high = limit - low < CHUNK_SIZE ? limit : low + CHUNK_SIZE - 1;
+            SegmentSieve sieve = new SegmentSieve(SegmentSieve.basePrimes(high), low, high);
+            while (sieve.hasNext()) {
+                sieve.next(primes);
+                if (!consumer.test(primes))
+                    return;
+                primes.clear();
+            }
+            // checking the end of range explicitly as the next window start overflows at Long.MAX_VALUE
+            if (high == limit)
+                return;
+            low = high + 1;
+        }
+    }
+
+    /**
+     * Pass the first prime of each k-tuple starting in the given range to the consumer in ascending order.
+     * The range is sieved up to limit + width of the pattern to complete the k-tuples starting at its end.
+     * The scan stops when the consumer returns false.
+     */
+    private static void scanTuples(long from, long limit, int[] pattern, LongPredicate consumer) {
+        int width = pattern[pattern.length - 1];
+        long sieveLimit = limit > Long.MAX_VALUE - width ? Long.MAX_VALUE : limit + width;
+        // primes of the current segment preceded by the primes of the previous segments that may start a k-tuple
+        PrimeSequence[] window = {new PrimeSequence()};
+        boolean[] stopped = new boolean[1];
+        forEachSegment(from, sieveLimit, segment -> {
+            if (segment.isEmpty())
+                return true;
+            window[0].addAll(segment);
+            // all primes up to the last one found are known, so the k-tuples starting 'width' before it are complete
+            long known = segment.get(segment.size() - 1);
+            stopped[0] = !matchTuples(window[0], known - width, limit, pattern, consumer);
+            window[0] = window[0].subSequence(known - width + 1, Long.MAX_VALUE);
+            return !stopped[0];
+        });
+        // all primes up to the end of the sieved range are known
+        if (!stopped[0])
+            matchTuples(window[0], Long.MAX_VALUE, limit, pattern, consumer);
+    }
+
+    /**
+     * Pass the primes of the window not greater than 'last' and 'limit' that start a k-tuple to the consumer.
+     * @return false if the consumer stopped the scan
+     */
+    private static boolean matchTuples(PrimeSequence window, long last, long limit, int[] pattern,
+                                       LongPredicate consumer) {
+        for (int i = 0; i < window.size(); i++) {
+            long p = window.get(i);
+            if (p > last || p > limit)
+                break;
+            // the window is sorted, so the members of the k-tuple are searched from p onwards
+            boolean match = true;
+            for (int k = 1, j = i + 1; k < pattern.length && match; k++) {
+                long member = p + pattern[k];
+                while (j < window.size() && window.get(j) < member)
+                    j++;
+                // members beyond Long.MAX_VALUE overflow and are never found
+                match = j < window.size() && window.get(j) == member;
+            }
+            if (match && !consumer.test(p))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find the first and the last prime of the given range and the largest gap between consecutive primes in it.
+     */
+    private static GapScan scanGaps(long from, long limit) {
+        GapScan scan = new GapScan();
+        forEachSegment(from, limit, segment -> {
+            for (int i = 0; i < segment.size(); i++) {
+                long p = segment.get(i);
+                if (scan.last < 0)
+                    scan.first = p;
+                else if (scan.max == null || p - scan.last > scan.max.getLength())
+                    scan.max = new PrimeGap(scan.last, p); // only a new maximum is allocated
+                scan.last = p;
+            }
+            return true;
+        });
+        return scan;
+    }
+
+    /**
+     * Scan of a single chunk of the range.
+     */
+    private interface ChunkScan<T> {
+        T scan(long from, long limit);
+    }
+
+    /**
+     * State of a scan for the largest gap.
+     */
+    private static final class GapScan {
+        private long first = -1;
+        private long last = -1;
+        private PrimeGap max;
+
+        void accept(PrimeGap gap) {
+            if (max == null || gap.getLength() > max.getLength())
+                max = gap;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package prime.generator;
+
+/**
+ * Counts prime numbers in a range without generating them.
+ *
+ * Wide ranges are counted as pi(to) - pi(from - 1) where the prime-counting function pi(x) is calculated using
+ * Lucy_Hedgehog's algorithm in O(x^(3/4)) time and O(x^(1/2)) space. Narrow ranges (and ranges beyond
+ * {@link #MAX_ANALYTIC_LIMIT}) are counted by the segmented sieve using {@link Long#bitCount(long)} over the words
+ * of each sieved segment. Ranges beyond {@link #MAX_ANALYTIC_LIMIT} can only be counted by the sieve, so they must
+ * not be wider than {@link #MAX_SIEVE_WIDTH}.
+ *
+ * The n-th prime is found by counting the primes up to an analytic estimate of the n-th prime and sieving only
+ * the window between the estimate and the n-th prime.
+ *
+ * This class is thread-safe.
+ */
+public final class PrimeCounter {
+
+    /**
+     * The largest number pi(x) is calculated for analytically, due to space constraints.
+     */
+    public static final long MAX_ANALYTIC_LIMIT = 10_000_000_000_000L;
+
+    /**
+     * The largest index of a prime {@link #nthPrime(long)} can find, i.e. pi(MAX_ANALYTIC_LIMIT).
+     */
+    public static final long MAX_NTH_PRIME = 346_065_536_839L;
+
+    /**
+     * The widest range ending beyond {@link #MAX_ANALYTIC_LIMIT} that can be counted, i.e. sieved, at once.
+     */
+    public static final long MAX_SIEVE_WIDTH = 10_000_000_000L;
+
+    private static final long[] SMALL_PRIMES = {2, 3, 5, 7, 11};
+    private static final long MIN_WINDOW = 1 << 16;
+    private static final PrimeGenerator WINDOW_GENERATOR = new SieveOfEratosthenesSegmentedPrimeGenerator();
+
+    // relative cost of a single step of the analytic algorithm compared to sieving a single number
+    private static final double ANALYTIC_STEP_COST = 1.2;
+
+    private PrimeCounter() {
+    }
+
+    /**
+     * Count all prime numbers in the given range, i.e. all primes greater or equal to 'from' but less than
+     * or equal to 'limit'.
+     * @param from range start
+     * @param limit range end
+     * @return number of primes in range
+     * @throws IllegalArgumentException if the range can not be counted, see {@link #checkRange(long, long)}
+     */
+    public static long count(long from, long limit) {
+        checkRange(from, limit);
+
+        if (limit < 2)
+            return 0;
+
+        // there are no primes below 2, so the range is only counted from zero to avoid overflow of its width
+        long start = Math.max(from, 0);
+        double analyticCost = ANALYTIC_STEP_COST * (Math.pow(limit, 0.75) + Math.pow(Math.max(start, 1), 0.75));
+        if (limit > MAX_ANALYTIC_LIMIT || (double)(limit - start) < analyticCost)
+            return countBySieve(start, limit);
+        return pi(limit) - pi(start - 1);
+    }
+
+    /**
+     * Check whether the given range can be counted by {@link #count(long, long)}, i.e. whether it is not empty,
+     * it is not wider than {@link #MAX_SIEVE_WIDTH} if it ends beyond {@link #MAX_ANALYTIC_LIMIT} and its base
+     * primes are available, see {@link BasePrimeTable#checkLimit(long)}.
+     * @param from range start
+     * @param limit range end
+     * @throws IllegalArgumentException if the range can not be counted
+     */
+    public static void checkRange(long from, long limit) {
+        if (limit < from)
+            throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
+        if (limit > MAX_ANALYTIC_LIMIT && limit - Math.max(from, 0) >= MAX_SIEVE_WIDTH) {
+            throw new IllegalArgumentException("Range ending beyond " + MAX_ANALYTIC_LIMIT
+                    + " must not be wider than " + MAX_SIEVE_WIDTH);
+        }
+        BasePrimeTable.checkLimit(limit);
+    }
+
+    /**
+     * Check whether the n-th prime can be found by {@link #nthPrime(long)}, i.e. whether the index is in range
+     * [1..{@link #MAX_NTH_PRIME}].
+     * @param n index of the prime
+     * @throws IllegalArgumentException if the index is out of range
+     */
+    public static void checkIndex(long n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("Index must be greater than zero");
+        if (n > MAX_NTH_PRIME)
+            throw new IllegalArgumentException("Index must not exceed " + MAX_NTH_PRIME);
+    }
+
+    /**
+     * Calculate the prime-counting function pi(x), i.e. the number of primes less than or equal to x, using
+     * Lucy_Hedgehog's algorithm.
+     * @param x number, must not exceed {@link #MAX_ANALYTIC_LIMIT}
+     * @return number of primes less than or equal to x
+     */
+    public static long pi(long x) {
+        if (x > MAX_ANALYTIC_LIMIT)
+            throw new IllegalArgumentException("Number must not exceed " + MAX_ANALYTIC_LIMIT);
+        if (x < 2)
+            return 0;
+
+        int r = (int)SegmentSieve.sqrt(x);
+        // S(v) is the number of integers in [2..v] not crossed off by the primes processed so far, it is required
+        // only for v = x / i, i.e. for all v <= r (small) and for x / i where i <= r (large)
+        int[] small = new int[r + 1];
+        long[] large = new long[r + 1];
+        for (int v = 1; v <= r; v++) {
+            small[v] = v - 1;
+            large[v] = x / v - 1;
+        }
+
+        for (int p = 2; p <= r; p++) {
+            if (small[p] == small[p - 1])
+                continue; // p is not a prime
+            int sp = small[p - 1];
+            long p2 = (long)p * p;
+            // S(v) -= S(v / p) - S(p - 1) for all v >= p^2, in descending order of v
+            int end = (int)Math.min(r, x / p2);
+            for (int i = 1; i <= end; i++) {
+                long d = (long)i * p;
+                large[i] -= (d <= r ? large[(int)d] : small[(int)(x / d)]) - sp;
+            }
+            for (int v = r; v >= p2; v--)
+                small[v] -= small[v / p] - sp;
+        }
+        return large[1];
+    }
+
+    /**
+     * Find the n-th prime number (the first prime is 2).
+     *
+     * The number of primes is counted exactly up to the estimate of the n-th prime given by Cipolla's asymptotic
+     * expansion. If the count is far off, the estimate is corrected once using the density of primes around it.
+     * Then only the windows between the estimate and the n-th prime are sieved.
+     * @param n index of the prime, must not exceed {@link #MAX_NTH_PRIME}
+     * @return the n-th prime
+     * @throws IllegalArgumentException if the index is out of range, see {@link #checkIndex(long)}
+     */
+    public static long nthPrime(long n) {
+        checkIndex(n);
+        if (n <= SMALL_PRIMES.length)
+            return SMALL_PRIMES[(int)n - 1];
+
+        long x = Math.min(estimateNthPrime(n), MAX_ANALYTIC_LIMIT);
+        long count = pi(x);
+        if (Math.abs(n - count) * Math.log(x) > MIN_WINDOW) {
+            x = Math.min(x + (long)((n - count) * Math.log(x)), MAX_ANALYTIC_LIMIT);
+            count = pi(x);
+        }
+
+        // count is the number of primes up to x, sieve windows from x towards the n-th prime
+        while (true) {
+            long width = Math.max(MIN_WINDOW, (long)(Math.abs(n - count) * Math.log(x) * 1.2));
+            if (count < n) {
+                PrimeSequence primes = WINDOW_GENERATOR.generate(x + 1, x + width);
+                if (count + primes.size() >= n)
+                    return primes.get((int)(n - count - 1));
+                count += primes.size();
+                x += width;
+            } else {
+                long low = Math.max(x - width + 1, 1);
+                PrimeSequence primes = WINDOW_GENERATOR.generate(low, x);
+                // the primes in the window are the primes with indexes count - size + 1 .. count
+                if (count - primes.size() < n)
+                    return primes.get((int)(n - (count - primes.size()) - 1));
+                count -= primes.size();
+                x = low - 1;
+            }
+        }
+    }
+
+    /**
+     * Estimate the n-th prime using Cipolla's asymptotic expansion
+     * p(n) ~ n (ln n + ln ln n - 1 + (ln ln n - 2) / ln n), which is between Dusart's bounds
+     * n (ln n + ln ln n - 1) and n (ln n + ln ln n) for n >= 6.
+     */
+    private static long estimateNthPrime(long n) {
+        double ln = Math.log(n);
+        double lnln = Math.log(ln);
+        return (long)(n * (ln + lnln - 1 + (lnln - 2) / ln));
+    }
+
+    /**
+     * Count all prime numbers in the given range using the segmented sieve.
+     * @param from range start
+     * @param limit range end
+     * @return number of primes in range
+     */
+    static long countBySieve(long from, long limit) {
+        long start = Math.max(from, 0);
+        // The sieve only stores numbers coprime to 30 so we need to count primes 2, 3, 5 if they are in range
+        PrimeSequence wheelPrimes = new PrimeSequence();
+        WheelBitmap.appendWheelPrimes(start, limit, wheelPrimes);
+        long count = wheelPrimes.size();
+
+        SegmentSieve sieve = new SegmentSieve(SegmentSieve.basePrimes(limit), start, limit);
+        while (sieve.hasNext())
+            count += sieve.nextCount();
+        return count;
+    }
+}
@@ -0,0 +1,43 @@
+package prime.generator;
+
+/**
+ * Represents a gap between two consecutive prime numbers.
+ */
+public final class PrimeGap {
+    private final long start;
+    private final long end;
+
+    /**
+     * Construct gap between the given consecutive primes.
+     * @param start the lower prime
+     * @param end the next prime
+     */
+    public PrimeGap(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Get the prime the gap starts with.
+     * @return the lower prime
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Get the prime the gap ends with.
+     * @return the next prime
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get the length of the gap, i.e. the difference of the primes.
+     * @return length
+     */
+    public long getLength() {
+        return end - start;
+    }
+}
@@ -1,6 +1,7 @@
 package prime.generator;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Defines an interface for generating all prime numbers in given range.
@@ -10,16 +11,52 @@ public interface PrimeGenerator {
      * Find all prime numbers up to the given limit.
      * The limit can be any positive long and does not have to be a prime number.
      * @param limit upper limit
-     * @return list of primes or empty list if none found
+     * @return sequence of primes or empty sequence if none found
      */
-    List<Long> findAll(long limit);
+    PrimeSequence generate(long limit);
 
     /**
      * Find all prime numbers in the given range.
      * I.e. this method will return all prime numbers greater or equal to 'from' but less than or equal to 'limit'.
      * @param from range start
      * @param limit range end
+     * @return sequence of primes
+     */
+    PrimeSequence generate(long from, long limit);
+
+    /**
+     * Find all prime numbers in the given range and pass them to the consumer in ascending order in one or more
+     * consecutive chunks (e.g. one chunk per sieve segment). The generator may reuse the sequence passed to
+     * the consumer once the consumer returns, so the consumer must not keep a reference to it.
+     * The default implementation generates the whole range and passes it as a single chunk.
+     * @param from range start
+     * @param limit range end
+     * @param consumer consumer of prime number chunks
+     */
+    default void generate(long from, long limit, Consumer<PrimeSequence> consumer) {
+        PrimeSequence primes = generate(from, limit);
+        if (!primes.isEmpty())
+            consumer.accept(primes);
+    }
+
+    /**
+     * Find all prime numbers up to the given limit.
+     * This method is kept for compatibility, see {@link #generate(long)}.
+     * @param limit upper limit
+     * @return list of primes or empty list if none found
+     */
+    default List<Long> findAll(long limit) {
+        return generate(limit).asList();
+    }
+
+    /**
+     * Find all prime numbers in the given range.
+     * This method is kept for compatibility, see {@link #generate(long, long)}.
+     * @param from range start
+     * @param limit range end
      * @return list of primes
      */
-    List<Long> findAll(long from, long limit);
+    default List<Long> findAll(long from, long limit) {
+        return generate(from, limit).asList();
+    }
 }
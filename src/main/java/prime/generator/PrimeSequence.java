@@ -0,0 +1,217 @@
+package prime.generator;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.LongStream;
+
+/**
+ * Represents an ordered sequence of prime numbers backed by a growable primitive long array.
+ *
+ * Compared to a {@code List<Long>} the sequence does not allocate an object per prime number which keeps
+ * the memory footprint at 8 bytes per prime and avoids GC pressure when generating large ranges.
+ *
+ * The sequence must be populated in ascending order, otherwise the result of search operations is undefined.
+ *
+ * This class is not thread-safe.
+ */
+public class PrimeSequence {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_ESTIMATED_CAPACITY = 1 << 24;
+    private static final long[] EMPTY = new long[0];
+
+    private long[] values;
+    private int size;
+
+    /**
+     * Construct an empty sequence with the default capacity.
+     */
+    public PrimeSequence() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct an empty sequence with the given initial capacity.
+     * @param capacity initial capacity
+     */
+    public PrimeSequence(int capacity) {
+        values = capacity == 0 ? EMPTY : new long[capacity];
+    }
+
+    private PrimeSequence(long[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Construct a sequence backed by the given array. The array is not copied and must not be modified afterwards.
+     * @param values ordered prime numbers
+     * @return sequence of prime numbers
+     */
+    public static PrimeSequence of(long... values) {
+        return new PrimeSequence(values, values.length);
+    }
+
+    /**
+     * Construct an empty sequence with the capacity sufficient to hold all primes in the given range.
+     * The capacity is estimated using the prime number theorem.
+     * @param from range start
+     * @param to range end
+     * @return empty sequence
+     */
+    public static PrimeSequence forRange(long from, long to) {
+        double estimate = estimateCount(to) - estimateCount(from - 1);
+        return new PrimeSequence((int)Math.min(MAX_ESTIMATED_CAPACITY, Math.max(DEFAULT_CAPACITY, estimate)));
+    }
+
+    private static double estimateCount(long n) {
+        // x / (ln x - 1.1) slightly overestimates pi(x) for all x >= 2
+        return n < 3 ? 1 : n / (Math.log((double)n) - 1.1);
+    }
+
+    /**
+     * Append a prime number to the end of the sequence.
+     * @param prime prime number
+     */
+    public void add(long prime) {
+        if (size == values.length)
+            values = Arrays.copyOf(values, Math.max(DEFAULT_CAPACITY, size + (size >> 1)));
+        values[size++] = prime;
+    }
+
+    /**
+     * Append all prime numbers of another sequence to the end of this sequence.
+     * @param other sequence of prime numbers
+     */
+    public void addAll(PrimeSequence other) {
+        if (size + other.size > values.length)
+            values = Arrays.copyOf(values, Math.max(size + other.size, size + (size >> 1)));
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Remove all prime numbers from the sequence retaining its capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Get prime number at the given index.
+     * @param index index
+     * @return prime number
+     */
+    public long get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        return values[index];
+    }
+
+    /**
+     * Get the number of primes in the sequence.
+     * @return sequence size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether the sequence is empty.
+     * @return true if the sequence is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Find the index of the first prime greater or equal to the given number.
+     * @param n number
+     * @return index of the first prime >= n or size of the sequence if there is none
+     */
+    public int lowerBound(long n) {
+        int idx = Arrays.binarySearch(values, 0, size, n);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    /**
+     * Get all primes of this sequence in range [from..to] (both inclusive) as a new sequence.
+     * @param from range start
+     * @param to range end
+     * @return sequence of prime numbers
+     */
+    public PrimeSequence subSequence(long from, long to) {
+        int start = lowerBound(from);
+        int end = to == Long.MAX_VALUE ? size : lowerBound(to + 1);
+        if (start >= end)
+            return new PrimeSequence(0);
+        return new PrimeSequence(Arrays.copyOfRange(values, start, end), end - start);
+    }
+
+    /**
+     * Copy the prime numbers into a new array.
+     * @return array of prime numbers
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Get the prime numbers as a stream.
+     * @return stream of prime numbers
+     */
+    public LongStream stream() {
+        return Arrays.stream(values, 0, size);
+    }
+
+    /**
+     * Get a read-only {@link List} view of this sequence. Elements are boxed on access.
+     * This method is provided for compatibility with the code using boxed collections only.
+     * @return list of prime numbers
+     */
+    public List<Long> asList() {
+        return new ListView();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PrimeSequence other = (PrimeSequence) o;
+        if (size != other.size)
+            return false;
+        for (int i = 0; i < size; i++)
+            if (values[i] != other.values[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < size; i++)
+            result = 31 * result + (int) (values[i] ^ (values[i] >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PrimeSequence{" +
+                "size=" + size +
+                '}';
+    }
+
+    private class ListView extends AbstractList<Long> implements RandomAccess {
+        @Override
+        public Long get(int index) {
+            return PrimeSequence.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package prime.generator;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Sieves consecutive segments of range [start..limit] using the segmented Sieve of Eratosthenes.
+ *
+ * The sieve starts with the segment containing 'start' and computes the first multiple of each base prime inside
+ * that segment, so sieving a window does not require sieving any numbers below the window. Segments are stored
+ * in a {@link WheelBitmap} sized to fit into the L1 data cache. Primes 2, 3 and 5 are never produced by the sieve.
+ *
+ * Each instance owns its segment buffer while sieving, so it is not thread-safe. The buffer is taken from the sieves
+ * completed on the same thread before, if any, and handed back once the last segment is sieved, so the sieves of
+ * the many small ranges (e.g. the batches of a parallel generation) do not allocate a buffer each. Base primes can
+ * be shared between multiple instances (e.g. sieving different parts of a range in parallel).
+ */
+final class SegmentSieve {
+    /**
+     * Number of bytes in a single segment.
+     */
+    static final int SEGMENT_BYTES = 32768;
+
+    /**
+     * Number of integers covered by a single segment, a multiple of 30.
+     */
+    static final long SEGMENT_SIZE = (long)SEGMENT_BYTES * WheelBitmap.WHEEL_SIZE;
+
+    // segment bitmap reused by the sieves on the same thread, null while in use
+    private static final ThreadLocal<WheelBitmap> SEGMENT = new ThreadLocal<>();
+
+    private final int[] basePrimes;
+    private final long limit;
+    // taken with the first segment, null once the sieve is done
+    private WheelBitmap sieve;
+    private long low;
+    private boolean done;
+
+    /**
+     * Construct sieve for the given range.
+     * @param basePrimes primes from 7 up to at least sqrt(limit) as unsigned integers, see {@link #basePrimes(long)}
+     * @param start range start, non-negative
+     * @param limit range end
+     */
+    SegmentSieve(int[] basePrimes, long start, long limit) {
+        this.basePrimes = basePrimes;
+        this.limit = limit;
+        this.low = start;
+        this.done = start > limit;
+    }
+
+    /**
+     * Get primes up to sqrt(limit) required to sieve any range ending at the given limit from the shared
+     * {@link BasePrimeTable}. The returned array may contain more primes.
+     * @param limit range end
+     * @return base primes, as unsigned integers
+     */
+    static int[] basePrimes(long limit) {
+        return BasePrimeTable.upTo(sqrt(limit));
+    }
+
+    /**
+     * Calculate the integer square root, i.e. the largest number whose square does not exceed the given one.
+     * Unlike (long)Math.sqrt(n) the result is exact for numbers that can not be represented as double.
+     * @param n non-negative number
+     * @return integer square root
+     */
+    static long sqrt(long n) {
+        long r = (long)Math.sqrt((double)n);
+        while (r * r > n)
+            r--;
+        while ((r + 1) * (r + 1) <= n && (r + 1) * (r + 1) > 0)
+            r++;
+        return r;
+    }
+
+    /**
+     * Stop the computation if the calling thread has been interrupted, e.g. when its request is cancelled.
+     * Called by the sieves once per segment, which is cheap compared to sieving the segment.
+     * @throws CancellationException if the thread is interrupted, the interruption status is kept
+     */
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Interrupted");
+    }
+
+    /**
+     * Check whether there are more segments to sieve.
+     * @return true if there is at least one more segment
+     */
+    boolean hasNext() {
+        return !done;
+    }
+
+    /**
+     * Sieve the next segment and append all primes found in it to the given sequence.
+     * @param primes sequence of primes
+     */
+    void next(PrimeSequence primes) {
+        long high = sieveNext();
+        sieve.appendTo(low, high, primes);
+        advance(high);
+    }
+
+    /**
+     * Sieve the next segment and count the primes found in it.
+     * @return number of primes in the segment
+     */
+    long nextCount() {
+        long high = sieveNext();
+        long count = sieve.count(low, high);
+        advance(high);
+        return count;
+    }
+
+    /**
+     * Sieve the next segment, i.e. interval [base, high] where base is the multiple of 30 not greater than low.
+     * Only the numbers in [low, high] belong to the range.
+     * @return the last number of the segment
+     */
+    private long sieveNext() {
+        checkInterrupted();
+        long base = low - low % WheelBitmap.WHEEL_SIZE;
+        long high = limit - base < SEGMENT_SIZE ? limit : base + SEGMENT_SIZE - 1;
+
+        if (sieve == null) {
+            sieve = SEGMENT.get();
+            SEGMENT.set(null);
+            if (sieve == null)
+                sieve = new WheelBitmap(SEGMENT_BYTES);
+        }
+        sieve.reset(base, (int)WheelBitmap.bytesFor(base, high));
+        sieve.crossOff(basePrimes);
+        SieveMetrics.SEGMENTS.increment();
+        return high;
+    }
+
+    private void advance(long high) {
+        // checking the end of range explicitly as the next segment start overflows when the limit is Long.MAX_VALUE
+        done = high == limit;
+        low = high + 1;
+        if (done) {
+            // a sieve abandoned before its last segment just leaves its bitmap to the garbage collector
+            SEGMENT.set(sieve);
+            sieve = null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package prime.generator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide statistics of the segmented sieves, i.e. of all generators and counters using segments.
+ *
+ * This class is thread-safe.
+ */
+public final class SieveMetrics {
+    static final LongAdder SEGMENTS = new LongAdder();
+
+    private SieveMetrics() {
+    }
+
+    /**
+     * Get the number of segments sieved since the start of the process.
+     * @return number of segments
+     */
+    public static long getSegmentCount() {
+        return SEGMENTS.sum();
+    }
+
+    /**
+     * Get the number of primes in the shared table of base primes.
+     * @return number of base primes
+     */
+    public static long getBasePrimeCount() {
+        return BasePrimeTable.size();
+    }
+}
@@ -1,92 +1,239 @@
 package prime.generator;
 
-import java.util.Arrays;
-import java.util.BitSet;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.function.Consumer;
 
 /**
- * Find primes using Sieve of Atkin algorithm.
- * This generator can only generate prime numbers in range [1..Integer.MAX_VALUE-1] due to space constraints.
+ * Implementation of segmented Sieve of Atkin.
+ * This generator can generate prime numbers in range [1..Long.MAX_VALUE] (only limited by the size of
+ * the available heap required to hold found prime numbers).
  *
- * The time complexity is O(n).
- * The space complexity is O(n).
+ * A number n coprime to 60 is prime iff it is square-free and the number of solutions of the quadratic form
+ * selected by n mod 60 (4x^2 + y^2, 3x^2 + y^2 or 3x^2 - y^2) is odd. Only the segments covering the requested
+ * range [from..limit] are sieved: for each x the range of y is computed so that the form falls into the segment,
+ * and only the residues of y modulo 30 selecting the form of n mod 60 (precomputed per residue of x) are
+ * enumerated, so no residue test is performed per solution. The solutions are toggled in a {@link WheelBitmap},
+ * then the multiples of squares of primes are crossed off.
+ *
+ * The segment bitmap of each thread is reused by all generations on that thread.
+ *
+ * The time complexity is O((limit - from) + sqrt(limit) * ((limit - from) / S + 1)) where S is the segment size.
+ * The term sqrt(limit) per segment comes from the form 3x^2 - y^2: all x in [sqrt(low / 3)..sqrt(high / 2)] have
+ * values inside the segment, i.e. about 0.13 * sqrt(limit) values of x however narrow the segment is, and each
+ * of them has to be visited to find its (mostly single or no) y. Hence narrow ranges far from zero are several
+ * times slower than with the segmented Sieve of Eratosthenes, e.g. 5 to 7 times for 100,000 numbers near 10^18.
+ * Ranges starting at zero take about the same time as with the segmented Sieve of Eratosthenes, within a factor
+ * of 2 either way depending on the machine.
+ * The space complexity is O(sqrt(limit)).
  */
-public class SieveOfAtkinPrimeGenerator extends AbstractSievePrimeGenerator {
+public class SieveOfAtkinPrimeGenerator implements PrimeGenerator {
+    /**
+     * Number of bytes in a single segment, covering 30 numbers each.
+     */
+    static final int SEGMENT_BYTES = 1 << 18;
+
+    private static final long SEGMENT_SIZE = (long)SEGMENT_BYTES * WheelBitmap.WHEEL_SIZE;
+
+    // residues of n modulo 60 handled by each quadratic form
+    private static final int[] FORM1_RESIDUES = {1, 13, 17, 29, 37, 41, 49, 53};
+    private static final int[] FORM2_RESIDUES = {7, 19, 31, 43};
+    private static final int[] FORM3_RESIDUES = {11, 23, 47, 59};
+
+    // residues of y modulo 30 for which the form falls into its residues modulo 60, indexed by the residue of x:
+    // 4x^2 mod 60 only depends on x mod 15, 3x^2 mod 60 on x mod 10 and y^2 mod 60 on y mod 30
+    private static final int[] FORM1_Y = residueTable(15, 4, 1, FORM1_RESIDUES);
+    private static final int[] FORM2_Y = residueTable(10, 3, 1, FORM2_RESIDUES);
+    private static final int[] FORM3_Y = residueTable(10, 3, -1, FORM3_RESIDUES);
+
+    // segment bitmap reused by the generations on the same thread, null while in use
+    private static final ThreadLocal<WheelBitmap> SEGMENT = new ThreadLocal<>();
+
+    @Override
+    public PrimeSequence generate(long limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Limit must be greater than zero");
+
+        return generate(1, limit);
+    }
+
+    @Override
+    public PrimeSequence generate(long from, long limit) {
+        PrimeSequence result = PrimeSequence.forRange(from, limit);
+        generate(from, limit, result::addAll);
+        return result;
+    }
+
+    /**
+     * Find all prime numbers in the given range passing them to the consumer one segment at a time.
+     * Only a single segment of primes is held in memory at any moment.
+     * @param from range start
+     * @param limit range end
+     * @param consumer consumer of prime number chunks
+     */
     @Override
-    public List<Long> findAll(long limit) {
-        if (limit <= 0 || limit > Integer.MAX_VALUE - 1)
-            throw new IllegalArgumentException("Limit must be between 1 and " + (Integer.MAX_VALUE - 1));
-
-        // Create the sieve (all numbers marked as non-prime by default)
-        BitSet sieve = new BitSet((int)limit+1);
-
-        int[] s =  {1,7,11,13,17,19,23,29,31,37,41,43,47,49,53,59};
-        int[] r1 = {1,13,17,29,37,41,49,53};
-        int[] r2 = {7,19,31,43};
-        int[] r3 = {11,23,47,59};
-
-        int sqrtLimit = (int)Math.sqrt((double)limit);
-
-        // Algorithm step 3.1
-        for (int x = 1; x <= sqrtLimit; x++) { // for all x's
-            for (int y = 1; y <= sqrtLimit; y += 2) { // and odd y's
-                int n = 4 * x * x + y * y;
-                if (n <= limit && contains(r1, n % 60)) {
-                    sieve.flip(n);
+    public void generate(long from, long limit, Consumer<PrimeSequence> consumer) {
+        if (limit < from)
+            throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
+
+        if (limit < 2)
+            return;
+
+        long start = Math.max(from, 0);
+
+        // primes found in the current segment
+        PrimeSequence segment = PrimeSequence.forRange(start, Math.min(limit, start + SEGMENT_SIZE));
+        // Algorithm does not produce primes 2, 3, 5 so we need to add them first
+        WheelBitmap.appendWheelPrimes(start, limit, segment);
+
+        int[] basePrimes = BasePrimeTable.upTo(SegmentSieve.sqrt(limit / 7));
+        WheelBitmap sieve = SEGMENT.get();
+        SEGMENT.set(null);
+        if (sieve == null)
+            sieve = new WheelBitmap(SEGMENT_BYTES);
+        try {
+            for (long low = start; ; ) {
+                long base = low - low % WheelBitmap.WHEEL_SIZE;
+                long high = limit - base < SEGMENT_SIZE ? limit : base + SEGMENT_SIZE - 1;
+                SegmentSieve.checkInterrupted();
+                sieveSegment(sieve, base, high, basePrimes);
+                sieve.appendTo(low, high, segment);
+                if (!segment.isEmpty()) {
+                    consumer.accept(segment);
+                    segment.clear();
                 }
+                // checking the end of range explicitly as the next segment start overflows at Long.MAX_VALUE
+                if (high == limit)
+                    break;
+                low = high + 1;
             }
+        } finally {
+            SEGMENT.set(sieve);
         }
+    }
 
-        // Algorithm step 3.2
-        for (int x = 1; x <= sqrtLimit; x += 2) { // for odd x's
-            for (int y = 2; y <= sqrtLimit; y += 2) { // and even y's
-                int n = 3 * x * x + y * y;
-                if (n <= limit && contains(r2, n % 60)) {
-                    sieve.flip(n);
-                }
+    /**
+     * Sieve segment [base..high] where base is a multiple of 30.
+     * For each form the bounds of y change monotonically with x, so they are maintained incrementally instead of
+     * computing two square roots for each x.
+     */
+    private static void sieveSegment(WheelBitmap sieve, long base, long high, int[] basePrimes) {
+        sieve.clear(base, (int)WheelBitmap.bytesFor(base, high));
+        long low = Math.max(base, 1);
+
+        // 4x^2 + y^2 for all x and odd y
+        if (high >= 5) {
+            long yMin = low > 4 ? ceilSqrt(low - 4) : 1;
+            long yMax = SegmentSieve.sqrt(high - 4);
+            for (long x = 1, xMax = SegmentSieve.sqrt((high - 1) / 4); x <= xMax; x++) {
+                long t = 4 * x * x;
+                while (yMax * yMax > high - t)
+                    yMax--;
+                while (yMin > 1 && (yMin - 1) * (yMin - 1) >= low - t)
+                    yMin--;
+                toggle(sieve, t, 1, yMin, yMax, FORM1_Y[(int)(x % 15)]);
             }
         }
 
-        // Algorithm step 3.3
-        for (int x = 2; x <= sqrtLimit; x++) { // for all x's
-            for (int y = 1; y < x; y++) { // for all y's where x > y
-                int n = 3 * x * x - y * y;
-                if (n <= limit && contains(r3, n % 60)) {
-                    sieve.flip(n);
-                }
+        // 3x^2 + y^2 for odd x and even y
+        if (high >= 7) {
+            long yMin = low > 3 ? ceilSqrt(low - 3) : 1;
+            long yMax = SegmentSieve.sqrt(high - 3);
+            for (long x = 1, xMax = SegmentSieve.sqrt((high - 4) / 3); x <= xMax; x += 2) {
+                long t = 3 * x * x;
+                while (yMax * yMax > high - t)
+                    yMax--;
+                while (yMin > 1 && (yMin - 1) * (yMin - 1) >= low - t)
+                    yMin--;
+                toggle(sieve, t, 1, yMin, yMax, FORM2_Y[(int)(x % 10)]);
             }
         }
 
-        // Eliminate composites by sieving, only for those occurences on the wheel
-        for (int w = 0; w <= sqrtLimit / 60; w++) {
-            for (int x: s) {
-                int n = 60 * w + x;
-                if (n >= 7 && n <= sqrtLimit && sieve.get(n)) {
-                    int nn = n * n;
-                    if (nn <= limit) {
-                        for (int w2 = 0; w2 <= limit / nn / 60; w2++) {
-                            for (int x2 : s) {
-                                int c = nn * (60 * w2 + x2);
-                                if (c <= limit) {
-                                    sieve.clear(c);
-                                }
-                            }
-                        }
-                    }
+        // 3x^2 - y^2 for x > y, i.e. n >= 2x^2 + 2x - 1
+        long xMax = SegmentSieve.sqrt(high / 2);
+        while (xMax * xMax > (high - 2 * xMax + 1) / 2)
+            xMax--;
+        long yMin = 1;
+        long yMax = -1;
+        for (long x = Math.max(2, SegmentSieve.sqrt(low / 3)); x <= xMax; x++) {
+            // 3x^2 may exceed Long.MAX_VALUE, but it does not exceed 2^64 and both differences are in long range
+            long t = 3 * x * x;
+            if (Long.compareUnsigned(t, low) < 0)
+                continue;
+            if (yMax < 0)
+                yMax = SegmentSieve.sqrt(t - low);
+            while ((yMax + 1) * (yMax + 1) <= t - low)
+                yMax++;
+            if (Long.compareUnsigned(t, high) > 0) {
+                if (yMin == 1)
+                    yMin = ceilSqrt(t - high);
+                while (yMin * yMin < t - high)
+                    yMin++;
+            }
+            toggle(sieve, t, -1, yMin, Math.min(x - 1, yMax), FORM3_Y[(int)(x % 10)]);
+        }
+
+        // base primes only cover the squares of primes up to sqrt(limit / 7), i.e. the squares having another
+        // multiple coprime to 30 below the limit, so the remaining squares in the segment are crossed off one by one
+        sieve.crossOffSquareMultiples(basePrimes);
+        for (long y = ceilSqrt(low), yEnd = SegmentSieve.sqrt(high); y <= yEnd; y++) {
+            if (sieve.get(y * y))
+                sieve.flip((int)((y * y - base) / WheelBitmap.WHEEL_SIZE), WheelBitmap.bitIndex(y * y));
+        }
+    }
+
+    /**
+     * Toggle all numbers t + sign * y^2 for y in [yMin..yMax] with y mod 30 in the given residue mask.
+     * All numbers must be inside the segment.
+     */
+    private static void toggle(WheelBitmap sieve, long t, int sign, long yMin, long yMax, int residues) {
+        if (yMin > yMax)
+            return;
+        long base = sieve.getBase();
+        if (yMax - yMin < WheelBitmap.WHEEL_SIZE) {
+            // far from zero most ranges of y contain a single number, so they are checked directly
+            for (long y = yMin; y <= yMax; y++) {
+                if ((residues >>> (int)(y % WheelBitmap.WHEEL_SIZE) & 1) != 0) {
+                    long n = t + sign * y * y;
+                    sieve.flip((int)((n - base) / WheelBitmap.WHEEL_SIZE), WheelBitmap.bitIndex(n));
                 }
             }
+            return;
+        }
+        for (int mask = residues; mask != 0; mask &= mask - 1) {
+            long y = yMin + Math.floorMod(Integer.numberOfTrailingZeros(mask) - yMin, WheelBitmap.WHEEL_SIZE);
+            if (y > yMax)
+                continue;
+            long n = t + sign * y * y;
+            // n mod 30 is the same for all y of the residue, the byte index grows by (60y + 900) / 30 per step
+            int bit = WheelBitmap.bitIndex(n);
+            long index = (n - base) / WheelBitmap.WHEEL_SIZE;
+            long step = sign * (2 * y + 30);
+            for (long count = (yMax - y) / WheelBitmap.WHEEL_SIZE; count >= 0; count--) {
+                sieve.flip((int)index, bit);
+                index += step;
+                step += sign * 60;
+            }
         }
-        // Algorithm does not produce primes 2, 3, 5 so we need to concat them first
-        return IntStream.concat(IntStream.of(2, 3, 5), sieve.stream())
-                .mapToLong(n -> (long)n)
-                .boxed()
-                .collect(Collectors.toList());
     }
 
-    private boolean contains(int[] arr, int n) {
-        return Arrays.binarySearch(arr, n) >= 0;
+    private static long ceilSqrt(long n) {
+        long r = SegmentSieve.sqrt(n);
+        return r * r < n ? r + 1 : r;
     }
 
+    /**
+     * Find the residues of y modulo 30 for which a * x^2 + sign * y^2 mod 60 is one of the given residues,
+     * for each residue of x modulo the given period.
+     * @return bit masks of the residues of y indexed by the residue of x
+     */
+    private static int[] residueTable(int period, int a, int sign, int[] formResidues) {
+        boolean[] accepted = new boolean[60];
+        for (int r : formResidues)
+            accepted[r] = true;
+        int[] table = new int[period];
+        for (int x = 0; x < period; x++)
+            for (int y = 0; y < WheelBitmap.WHEEL_SIZE; y++)
+                if (accepted[Math.floorMod(a * x * x + sign * y * y, 60)])
+                    table[x] |= 1 << y;
+        return table;
+    }
 }
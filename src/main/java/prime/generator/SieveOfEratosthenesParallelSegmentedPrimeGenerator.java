@@ -0,0 +1,138 @@
+package prime.generator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Implementation of segmented Sieve of Eratosthenes with parallel computation.
+ * This generator can generate prime numbers in range [1..Long.MAX_VALUE] (only limited by the size of
+ * the available heap required to hold found prime numbers).
+ *
+ * The requested range is split into batches of consecutive segments which are sieved in parallel on the given
+ * executor (the common {@link ForkJoinPool} by default), see {@link ParallelTasks}. Each batch uses its own segment
+ * buffer and computes its own starting offsets from the base primes shared by all batches. The primes found in each
+ * batch are passed on in the order of the batches, so the result is the same as the one of
+ * {@link SieveOfEratosthenesSegmentedPrimeGenerator}.
+ *
+ * A generator constructed with a number of worker threads owns a pool of its own, which is shut down by
+ * {@link #close()}.
+ *
+ * The time complexity is O((limit - from) log log limit / parallelism + sqrt(limit)).
+ * The space complexity is O(sqrt(limit) + parallelism * batch size).
+ */
+public class SieveOfEratosthenesParallelSegmentedPrimeGenerator implements PrimeGenerator, AutoCloseable {
+
+    private static final int SEGMENTS_PER_BATCH = 16;
+    /**
+     * Number of integers sieved by a single task.
+     */
+    static final long BATCH_SIZE = SegmentSieve.SEGMENT_SIZE * SEGMENTS_PER_BATCH;
+
+    private final Executor executor;
+    private final int parallelism;
+    // pool owned by this generator or null
+    private final ExecutorService ownPool;
+
+    /**
+     * Construct generator sieving on the common pool.
+     */
+    public SieveOfEratosthenesParallelSegmentedPrimeGenerator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Construct generator sieving on the given executor using all available processors.
+     * @param executor executor of the batches
+     */
+    public SieveOfEratosthenesParallelSegmentedPrimeGenerator(Executor executor) {
+        this.executor = executor;
+        parallelism = Runtime.getRuntime().availableProcessors();
+        ownPool = null;
+    }
+
+    /**
+     * Construct generator sieving on a pool of its own with the given number of worker threads.
+     * The pool is shut down by {@link #close()}.
+     * @param parallelism number of worker threads
+     */
+    public SieveOfEratosthenesParallelSegmentedPrimeGenerator(int parallelism) {
+        ownPool = new ForkJoinPool(parallelism);
+        executor = ownPool;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public PrimeSequence generate(long limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Limit must be greater than zero");
+
+        return generate(1, limit);
+    }
+
+    @Override
+    public PrimeSequence generate(long from, long limit) {
+        PrimeSequence result = PrimeSequence.forRange(from, limit);
+        generate(from, limit, result::addAll);
+        return result;
+    }
+
+    /**
+     * Find all prime numbers in the given range passing them to the consumer one batch of segments at a time.
+     * At most two batches per worker thread are held in memory at any moment.
+     * @param from range start
+     * @param limit range end
+     * @param consumer consumer of prime number chunks
+     */
+    @Override
+    public void generate(long from, long limit, Consumer<PrimeSequence> consumer) {
+        if (limit < from)
+            throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
+
+        if (limit < 2)
+            return;
+
+        long start = Math.max(from, 0);
+
+        // The sieve only stores numbers coprime to 30 so we need to include primes 2, 3, 5 if they are in range
+        PrimeSequence wheelPrimes = new PrimeSequence();
+        WheelBitmap.appendWheelPrimes(start, limit, wheelPrimes);
+        accept(wheelPrimes, consumer);
+
+        int[] basePrimes = SegmentSieve.basePrimes(limit);
+
+        // batch size is a multiple of the segment size, so all segments are aligned to the segment of the range start
+        long first = start - start % WheelBitmap.WHEEL_SIZE;
+        long batches = (limit - first) / BATCH_SIZE + 1;
+        // Keep enough batches in flight to occupy all workers while the consumer processes completed batches
+        ParallelTasks.forEachOrdered(batches, i -> {
+            long low = first + i * BATCH_SIZE;
+            long batchStart = Math.max(low, start);
+            long batchEnd = low + Math.min(BATCH_SIZE - 1, limit - low);
+            return () -> sieveBatch(basePrimes, batchStart, batchEnd);
+        }, executor, 2 * parallelism, primes -> accept(primes, consumer));
+    }
+
+    /**
+     * Shut down the pool owned by this generator, if any.
+     */
+    @Override
+    public void close() {
+        if (ownPool != null)
+            ownPool.shutdown();
+    }
+
+    private static PrimeSequence sieveBatch(int[] basePrimes, long start, long limit) {
+        PrimeSequence primes = PrimeSequence.forRange(start, limit);
+        SegmentSieve sieve = new SegmentSieve(basePrimes, start, limit);
+        while (sieve.hasNext())
+            sieve.next(primes);
+        return primes;
+    }
+
+    private static void accept(PrimeSequence primes, Consumer<PrimeSequence> consumer) {
+        if (!primes.isEmpty())
+            consumer.accept(primes);
+    }
+}
@@ -1,50 +1,48 @@
 package prime.generator;
 
-import java.util.BitSet;
-import java.util.List;
-import java.util.stream.Collectors;
-
 /**
  * Implementation of simple Sieve of Eratosthenes.
  * This generator can only generate prime numbers in range [1..Integer.MAX_VALUE-1] due to space constraints.
  *
+ * The sieve is stored in a {@link WheelBitmap}, i.e. only numbers coprime to 30 are stored and sieved.
+ *
  * The time complexity is O(n log log n).
  * The space complexity is O(n).
  */
 public class SieveOfEratosthenesPrimeGenerator extends AbstractSievePrimeGenerator {
     @Override
-    public List<Long> findAll(long limit) {
+    public PrimeSequence generate(long limit) {
         if (limit <= 0 || limit > Integer.MAX_VALUE - 1)
             throw new IllegalArgumentException("Limit must be between 1 and " + (Integer.MAX_VALUE - 1));
 
-        BitSet sieve = new BitSet((int)limit+1);
-        findAll(sieve, (int)limit);
-        return sieve.stream()
-                .mapToLong(n -> (long)n)
-                .boxed()
-                .collect(Collectors.toList());
+        WheelBitmap sieve = sieve((int)limit);
+        PrimeSequence primes = PrimeSequence.forRange(1, limit);
+        WheelBitmap.appendWheelPrimes(1, limit, primes);
+        sieve.appendTo(1, limit, primes);
+        return primes;
     }
 
     /**
-     * Populates the given sieve with prime numbers.
-     * @param sieve prime sieve
+     * Find all primes greater than 5 up to the given limit. These are the base primes required to sieve
+     * a {@link WheelBitmap} covering any range ending at or below limit^2.
      * @param limit limit
+     * @return primes in range [7..limit]
      */
-    public static void findAll(BitSet sieve, int limit) {
-        // Mark all numbers except 0 and 1 as prime initially
-        sieve.clear(0, 2);
-        sieve.set(2, limit+1);
+    public static int[] basePrimes(int limit) {
+        if (limit < 7)
+            return new int[0];
 
-        int sqrtLimit = (int)Math.sqrt((double)limit);
+        PrimeSequence primes = PrimeSequence.forRange(7, limit);
+        sieve(limit).appendTo(7, limit, primes);
+        return primes.stream().mapToInt(p -> (int)p).toArray();
+    }
 
-        // Sieve out all multiples of consecutive primes
-        for (int i = 2; i <= sqrtLimit; i++) {
-            if (sieve.get(i)) {
-                for (int j = i * i; j <= limit; j += i) {
-                    sieve.clear(j);
-                }
-            }
-        }
+    private static WheelBitmap sieve(int limit) {
+        WheelBitmap sieve = new WheelBitmap((int)WheelBitmap.bytesFor(0, limit));
+        sieve.reset(0, sieve.getLength());
+        // base primes are found recursively, the recursion ends once the limit drops below 7^2
+        sieve.crossOff(basePrimes((int)Math.sqrt((double)limit)));
+        return sieve;
     }
 
 }
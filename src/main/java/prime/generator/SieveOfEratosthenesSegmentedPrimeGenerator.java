@@ -1,74 +1,74 @@
 package prime.generator;
 
-import java.util.BitSet;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Implementation of segmented Sieve of Eratosthenes.
  * This generator can generate prime numbers in range [1..Long.MAX_VALUE] (only limited by the size of
  * the available heap required to hold found prime numbers).
  *
- * The time complexity is O(n log log n).
- * The space complexity is O(sqrt(n)).
+ * Only the segments covering the requested range [from..limit] are sieved, i.e. the sieving starts with the
+ * segment containing 'from' rather than with zero. Found primes can be consumed one segment at a time using
+ * {@link #generate(long, long, Consumer)} so the memory footprint stays bounded by a single segment.
+ * Segments are stored in a {@link WheelBitmap}, i.e. only numbers coprime to 30 are stored and sieved.
+ *
+ * The time complexity is O((limit - from) log log limit + sqrt(limit)).
+ * The space complexity is O(sqrt(limit)).
  */
-public class SieveOfEratosthenesSegmentedPrimeGenerator extends AbstractSievePrimeGenerator {
-
-    private static final int SEGMENT_SIZE = 32768;
+public class SieveOfEratosthenesSegmentedPrimeGenerator implements PrimeGenerator {
+    /**
+     * Number of integers covered by a single sieve segment (32768 bytes of 30 numbers each).
+     */
+    public static final long SEGMENT_SIZE = SegmentSieve.SEGMENT_SIZE;
 
     @Override
-    public List<Long> findAll(long limit) {
+    public PrimeSequence generate(long limit) {
         if (limit <= 0)
             throw new IllegalArgumentException("Limit must be greater than zero");
 
-        int sqrtLimit = (int)Math.sqrt((double)limit);
-
-        int s = 2;
-        long n = 3;
+        return generate(1, limit);
+    }
 
-        BitSet sieve = new BitSet(SEGMENT_SIZE);
+    @Override
+    public PrimeSequence generate(long from, long limit) {
+        PrimeSequence result = PrimeSequence.forRange(from, limit);
+        generate(from, limit, result::addAll);
+        return result;
+    }
 
-        // generate small primes <= sqrt
-        BitSet isPrime = new BitSet(sqrtLimit + 1);
-        // Initialise the sieve using standard Sieve of Eratosthenes first
-        SieveOfEratosthenesPrimeGenerator.findAll(isPrime, sqrtLimit);
+    /**
+     * Find all prime numbers in the given range passing them to the consumer one segment at a time.
+     * Only a single segment of primes is held in memory at any moment.
+     * @param from range start
+     * @param limit range end
+     * @param consumer consumer of prime number chunks
+     */
+    @Override
+    public void generate(long from, long limit, Consumer<PrimeSequence> consumer) {
+        if (limit < from)
+            throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
 
-        List<Long> result = new LinkedList<>();
-        result.add(2L);
+        if (limit < 2)
+            return;
 
-        List<Integer> smallPrimes = new LinkedList<>();
-        List<Integer> next = new LinkedList<>();
-        // Process each segment in loop
-        for (long low = 0; low <= limit; low += SEGMENT_SIZE)
-        {
-            sieve.set(0, SEGMENT_SIZE);
+        long start = Math.max(from, 0);
 
-            // current segment = interval [low, high]
-            long high = Math.min(low + SEGMENT_SIZE - 1, limit);
+        // primes found in the current segment
+        PrimeSequence segment = PrimeSequence.forRange(start, Math.min(limit, start + SegmentSieve.SEGMENT_SIZE));
+        // The sieve only stores numbers coprime to 30 so we need to include primes 2, 3, 5 if they are in range
+        WheelBitmap.appendWheelPrimes(start, limit, segment);
 
-            // store small primes needed to cross off multiples
-            for (; s * s <= high; s++)
-            {
-                if (isPrime.get(s))
-                {
-                    smallPrimes.add(s);
-                    next.add((int)(s * s - low));
-                }
-            }
-            // sieve the current segment
-            for (int i = 1; i < smallPrimes.size(); i++)
-            {
-                int j = next.get(i);
-                for (int k = smallPrimes.get(i) * 2; j < SEGMENT_SIZE; j += k)
-                    sieve.clear(j);
-                next.set(i, j - SEGMENT_SIZE);
+        SegmentSieve sieve = new SegmentSieve(SegmentSieve.basePrimes(limit), start, limit);
+        // Process each segment of the window [start, limit] in loop
+        while (sieve.hasNext()) {
+            sieve.next(segment);
+            if (!segment.isEmpty()) {
+                consumer.accept(segment);
+                segment.clear();
             }
-
-            for (; n <= high; n += 2)
-                if (sieve.get((int)(n - low))) { // n is a prime
-                    result.add(n);
-                }
         }
-        return result;
+        // the first segment may consist of the wheel primes only
+        if (!segment.isEmpty())
+            consumer.accept(segment);
     }
 }
@@ -1,10 +1,6 @@
 package prime.generator;
 
 import java.util.BitSet;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.LongStream;
 
 /**
  * Implementation of Sieve of Sundaram algorithm for prime number generation.
@@ -13,7 +9,7 @@ import java.util.stream.LongStream;
  */
 public class SieveOfSundaramPrimeGenerator extends AbstractSievePrimeGenerator {
     @Override
-    public List<Long> findAll(long limit) {
+    public PrimeSequence generate(long limit) {
         if (limit <= 0 || limit > Integer.MAX_VALUE - 1)
             throw new IllegalArgumentException("Limit must be between 1 and " + (Integer.MAX_VALUE - 1));
 
@@ -27,13 +23,13 @@ public class SieveOfSundaramPrimeGenerator extends AbstractSievePrimeGenerator {
             for (int j = i; j <= (n - i) / (2 * i + 1); j++)
                 prime.clear(i + j + 2 * i * j);
 
-        // Sieve of Sundaram does not produce prime 2 so we need to concat to get a complete list
-        return LongStream.concat(
-                    LongStream.of(2),
-                    IntStream.range(1, prime.length() / 2 + 1)
-                        .filter(prime::get)
-                        .mapToLong(i -> 2 * i + 1))
-                .boxed()
-                .collect(Collectors.toList());
+        // Sieve of Sundaram does not produce prime 2 so we need to add it to get a complete list
+        PrimeSequence primes = PrimeSequence.forRange(1, limit);
+        if (limit >= 2)
+            primes.add(2);
+        for (int i = 1; i < prime.length() / 2 + 1; i++)
+            if (prime.get(i))
+                primes.add(2L * i + 1);
+        return primes;
     }
 }
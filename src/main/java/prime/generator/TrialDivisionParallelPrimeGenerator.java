@@ -1,58 +1,96 @@
 package prime.generator;
 
-import java.util.BitSet;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.LongStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Implementation of prime number generator using trial division method with parallel computation.
  *
+ * The range is split into one chunk per processor, the chunks are tested in parallel on the given executor
+ * (the common {@link ForkJoinPool} by default), see {@link ParallelTasks}.
+ *
  * This generator can generate prime numbers in range [1..Long.MAX_VALUE].
  *
  */
 public class TrialDivisionParallelPrimeGenerator implements PrimeGenerator {
+
+    private final Executor executor;
+
+    /**
+     * Construct generator testing on the common pool.
+     */
+    public TrialDivisionParallelPrimeGenerator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Construct generator testing on the given executor.
+     * @param executor executor of the chunks
+     */
+    public TrialDivisionParallelPrimeGenerator(Executor executor) {
+        this.executor = executor;
+    }
+
     @Override
-    public List<Long> findAll(long limit) {
+    public PrimeSequence generate(long limit) {
         if (limit <= 0)
             throw new IllegalArgumentException("Limit must be greater than zero");
 
-        return findAll(1, limit);
+        return generate(1, limit);
     }
 
     @Override
-    public List<Long> findAll(long from, long limit) {
+    public PrimeSequence generate(long from, long limit) {
         if (limit < from)
             throw new IllegalArgumentException("Limit must be greater or equal to 'from'");
 
-        int sqrtLimit = (int)Math.sqrt((double)limit);
-        BitSet sieve = new BitSet(sqrtLimit + 1);
-        SieveOfEratosthenesPrimeGenerator.findAll(sieve, sqrtLimit);
+        PrimeSequence primes = new PrimeSequence();
+        // Since we only test odd numbers (below) we need to include prime 2 in the result if it's in range
+        if (from <= 2 && limit >= 2)
+            primes.add(2);
+        if (limit < 3)
+            return primes;
 
-        // Test only odd numbers in the given range
-        return getTestRange(from, limit)
-                .parallel()
-                .filter(n -> isPrime(sieve, n))
-                .boxed()
-                .collect(Collectors.toList());
+        int[] basePrimes = SegmentSieve.basePrimes(limit);
+
+        long start = Math.max(from, 3);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long chunkSize = (limit - start) / parallelism + 1;
+        ParallelTasks.forEachOrdered((limit - start) / chunkSize + 1, i -> {
+            long low = start + i * chunkSize;
+            long high = limit - low < chunkSize ? limit : low + chunkSize - 1;
+            return () -> testRange(basePrimes, low, high);
+        }, executor, parallelism, primes::addAll);
+        return primes;
     }
 
-    private LongStream getTestRange(long from, long limit) {
-        LongStream first = LongStream.empty();
-        // Since we only test odd numbers (below) we need to include prime 2 in the result if it's in range
-        if (from <= 2)
-            first = LongStream.of(2);
-        // Start with an odd number
-        if (from % 2 == 0)
-            ++from;
-        // Include all odd numbers in range [from..limit] as candidates for primes
-        return LongStream.concat(first, LongStream.iterate(from, n -> n += 2).limit((limit - from) / 2 + 1));
+    private static PrimeSequence testRange(int[] basePrimes, long from, long limit) {
+        PrimeSequence primes = new PrimeSequence();
+        // Test only odd numbers in range [from..limit], checking the end explicitly as n + 2 overflows
+        for (long n = from | 1; n <= limit; n += 2) {
+            if (isPrime(basePrimes, n))
+                primes.add(n);
+            if (limit - n < 2)
+                break;
+        }
+        return primes;
     }
 
-    private boolean isPrime(BitSet sieve, long n) {
+    private static boolean isPrime(int[] basePrimes, long n) {
         if (n == 1)
             return false;
-        int sqrt = (int)Math.sqrt((double)n);
-        return !sieve.get(0, sqrt+1).stream().anyMatch(p -> n % p == 0);
+        // base primes start with 7 so divisibility by 3 and 5 is checked separately, even numbers are never tested
+        if (n % 3 == 0)
+            return n == 3;
+        if (n % 5 == 0)
+            return n == 5;
+        for (int prime : basePrimes) {
+            long p = Integer.toUnsignedLong(prime);
+            if (p * p > n)
+                break;
+            if (n % p == 0)
+                return false;
+        }
+        return true;
     }
 }
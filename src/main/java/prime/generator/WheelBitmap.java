@@ -0,0 +1,401 @@
+package prime.generator;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Bit-packed storage for the Sieve of Eratosthenes based on the modulo 30 wheel.
+ *
+ * Only the numbers coprime to 30 (i.e. not divisible by 2, 3 or 5) are stored. There are exactly 8 such residues
+ * modulo 30, so each byte of the bitmap covers 30 consecutive numbers. Compared to a {@link java.util.BitSet} with
+ * one bit per number this reduces the memory and cache footprint 3.75 times. Bytes are packed into long words
+ * (byte k occupies bits 8*(k%8)..8*(k%8)+7 of word k/8) so primes can be counted with {@link Long#bitCount(long)}.
+ *
+ * The bitmap covers range [base..base+30*length-1] where the base is a multiple of 30. Primes 2, 3 and 5 are never
+ * stored in the bitmap.
+ *
+ * This class is not thread-safe.
+ */
+public final class WheelBitmap {
+    /**
+     * Size of the wheel, i.e. the number of integers covered by a single byte.
+     */
+    public static final int WHEEL_SIZE = 30;
+
+    // primes eliminated by the wheel
+    private static final int[] WHEEL_PRIMES = {2, 3, 5};
+    // residues coprime to 30 in bit order
+    private static final int[] RESIDUES = {1, 7, 11, 13, 17, 19, 23, 29};
+    // bit index of each residue or -1 if the residue is not coprime to 30
+    private static final int[] BIT_INDEX = new int[WHEEL_SIZE];
+    // number of residues coprime to 30 less than the given one, i.e. the bit index of the first number >= residue
+    private static final int[] RANK = new int[WHEEL_SIZE + 1];
+
+    static {
+        Arrays.fill(BIT_INDEX, -1);
+        for (int i = 0; i < RESIDUES.length; i++)
+            BIT_INDEX[RESIDUES[i]] = i;
+        for (int r = 1; r <= WHEEL_SIZE; r++)
+            RANK[r] = RANK[r - 1] + (BIT_INDEX[r - 1] >= 0 ? 1 : 0);
+    }
+
+    private final long[] words;
+    private long base;
+    private int length;
+
+    /**
+     * Construct bitmap with the given capacity. All numbers are initially marked as composite.
+     * @param capacity maximum number of bytes, i.e. the bitmap can cover up to 30 * capacity numbers
+     */
+    public WheelBitmap(int capacity) {
+        words = new long[(capacity + 7) >>> 3];
+        length = capacity;
+    }
+
+    /**
+     * Construct bitmap on top of existing words, e.g. the ones stored in cache.
+     * @param base first number covered by the bitmap, must be a multiple of 30
+     * @param length number of bytes
+     * @param words bitmap words
+     */
+    public WheelBitmap(long base, int length, long[] words) {
+        if (base % WHEEL_SIZE != 0)
+            throw new IllegalArgumentException("Base must be a multiple of " + WHEEL_SIZE);
+        this.base = base;
+        this.length = length;
+        this.words = words;
+    }
+
+    /**
+     * Append primes 2, 3 and 5 (which are never stored in the bitmap) in range [from..to] to the given sequence.
+     * @param from range start
+     * @param to range end
+     * @param primes sequence of primes
+     */
+    public static void appendWheelPrimes(long from, long to, PrimeSequence primes) {
+        for (int p : WHEEL_PRIMES)
+            if (p >= from && p <= to)
+                primes.add(p);
+    }
+
+    /**
+     * Get the number of bytes required to cover the given range when aligned to the wheel.
+     * @param from range start
+     * @param to range end
+     * @return number of bytes
+     */
+    public static long bytesFor(long from, long to) {
+        return to / WHEEL_SIZE - from / WHEEL_SIZE + 1;
+    }
+
+    /**
+     * Create a bitmap covering range [from..to] with the given primes marked. Primes 2, 3 and 5 are ignored.
+     * @param from range start
+     * @param to range end
+     * @param primes ordered sequence of all primes in range
+     * @return bitmap
+     */
+    public static WheelBitmap of(long from, long to, PrimeSequence primes) {
+        long start = Math.max(from, 0);
+        long bytes = bytesFor(start, to);
+        if (bytes > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Range is too large");
+        int length = (int)bytes;
+        WheelBitmap bitmap = new WheelBitmap(start - start % WHEEL_SIZE, length, new long[(length + 7) >>> 3]);
+        for (int i = 0; i < primes.size(); i++) {
+            long p = primes.get(i);
+            if (p > WHEEL_PRIMES[WHEEL_PRIMES.length - 1])
+                bitmap.set(p);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Get the first number covered by the bitmap.
+     * @return first number covered, a multiple of 30
+     */
+    public long getBase() {
+        return base;
+    }
+
+    /**
+     * Get the number of bytes (groups of 30 numbers) covered by the bitmap.
+     * @return number of bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Get the words of the bitmap. The array may be longer than required by the current length.
+     * @return bitmap words
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    /**
+     * Reposition the bitmap to cover the range starting with the multiple of 30 not greater than 'from',
+     * and mark all numbers coprime to 30 as prime.
+     * @param from first number to be covered
+     * @param length number of bytes to cover, must not exceed the capacity
+     */
+    public void reset(long from, int length) {
+        if (length > words.length * 8L)
+            throw new IllegalArgumentException("Length exceeds the capacity of the bitmap");
+        this.base = from - from % WHEEL_SIZE;
+        this.length = length;
+        int fullWords = length >>> 3;
+        Arrays.fill(words, 0, fullWords, -1L);
+        if ((length & 7) != 0)
+            words[fullWords] = (1L << ((length & 7) << 3)) - 1;
+    }
+
+    /**
+     * Reposition the bitmap to cover the range starting with the multiple of 30 not greater than 'from',
+     * and mark all numbers as composite, e.g. for sieves that mark the primes rather than cross off composites.
+     * @param from first number to be covered
+     * @param length number of bytes to cover, must not exceed the capacity
+     */
+    public void clear(long from, int length) {
+        if (length > words.length * 8L)
+            throw new IllegalArgumentException("Length exceeds the capacity of the bitmap");
+        this.base = from - from % WHEEL_SIZE;
+        this.length = length;
+        Arrays.fill(words, 0, (length + 7) >>> 3, 0L);
+    }
+
+    /**
+     * Cross off all multiples of the given primes (except the primes themselves) and mark 1 as non-prime.
+     * All primes must be greater than 5 and in ascending order. In order to sieve the bitmap completely the primes
+     * must include all primes from 7 to sqrt(last covered number), the primes beyond it are ignored.
+     * @param primes primes to cross off, as unsigned integers
+     */
+    public void crossOff(int[] primes) {
+        long baseIndex = base / WHEEL_SIZE;
+        // the last byte may extend beyond Long.MAX_VALUE
+        long last = base + (long)WHEEL_SIZE * (length - 1);
+        long end = last > Long.MAX_VALUE - (WHEEL_SIZE - 1) ? Long.MAX_VALUE : last + WHEEL_SIZE - 1;
+        for (int prime : primes) {
+            long p = Integer.toUnsignedLong(prime);
+            long pp = p * p;
+            if (pp > end)
+                break;
+            // a prime not less than the length crosses off at most one byte per residue
+            int step = (int)Math.min(p, length);
+            // smallest multiplier of p such that the multiple is inside the bitmap and is not less than p^2
+            long minMultiplier = Math.max(p, base / p + (base % p != 0 ? 1 : 0));
+            // the multiples of p coprime to 30 are p * (30q + r) where r is one of the 8 residues, hence for each
+            // residue the multiples occupy the same bit of every p-th byte
+            for (int r : RESIDUES) {
+                long q = minMultiplier <= r ? 0 : (minMultiplier - r + WHEEL_SIZE - 1) / WHEEL_SIZE;
+                long pr = p * r;
+                long index = p * q + pr / WHEEL_SIZE - baseIndex;
+                if (index >= length)
+                    continue;
+                long mask = ~(1L << BIT_INDEX[(int)(pr % WHEEL_SIZE)]);
+                for (int k = (int)index; k < length; k += step)
+                    words[k >>> 3] &= Long.rotateLeft(mask, (k & 7) << 3);
+            }
+        }
+        if (base == 0 && length > 0)
+            words[0] &= ~1L; // 1 is not a prime
+    }
+
+    /**
+     * Cross off all multiples of the squares of the given primes, including the squares themselves, i.e. leave
+     * only square-free numbers marked. All primes must be greater than 5 and in ascending order.
+     * @param primes primes whose squares are crossed off, as unsigned integers
+     */
+    public void crossOffSquareMultiples(int[] primes) {
+        // the last byte may extend beyond Long.MAX_VALUE
+        long last = base + (long)WHEEL_SIZE * (length - 1);
+        long end = last > Long.MAX_VALUE - (WHEEL_SIZE - 1) ? Long.MAX_VALUE : last + WHEEL_SIZE - 1;
+        for (int prime : primes) {
+            long p = Integer.toUnsignedLong(prime);
+            long pp = p * p;
+            if (pp > end)
+                break;
+            long minMultiplier = Math.max(1, base / pp + (base % pp != 0 ? 1 : 0));
+            long maxMultiplier = end / pp;
+            // as in crossOff(), the multiples pp * (30q + r) for each residue r occupy the same bit of every
+            // pp-th byte; the multiples are computed directly as pp * r may overflow
+            for (int r : RESIDUES) {
+                long multiplier = minMultiplier + Math.floorMod(r - minMultiplier, WHEEL_SIZE);
+                if (multiplier > maxMultiplier)
+                    continue;
+                long n = pp * multiplier;
+                long mask = ~(1L << BIT_INDEX[(int)(n % WHEEL_SIZE)]);
+                for (long k = (n - base) / WHEEL_SIZE; k < length; k += pp)
+                    words[(int)(k >>> 3)] &= Long.rotateLeft(mask, ((int)k & 7) << 3);
+            }
+        }
+    }
+
+    /**
+     * Flip the given bit of the given byte, i.e. mark a composite number as prime and vice versa.
+     * @param index index of the byte, i.e. (n - base) / 30
+     * @param bit bit index of the residue n % 30, see {@link #bitIndex(long)}
+     */
+    void flip(int index, int bit) {
+        words[index >>> 3] ^= 1L << (((index & 7) << 3) + bit);
+    }
+
+    /**
+     * Get the index of the bit representing the given number within its byte.
+     * @param n non-negative number
+     * @return bit index or -1 if the number is not coprime to 30
+     */
+    static int bitIndex(long n) {
+        return BIT_INDEX[(int)(n % WHEEL_SIZE)];
+    }
+
+    /**
+     * Check whether the given number is marked as prime in the bitmap.
+     * Numbers outside of the bitmap and numbers not coprime to 30 are never marked.
+     * @param n number
+     * @return true if the number is marked as prime
+     */
+    public boolean get(long n) {
+        if (n < base || (n - base) / WHEEL_SIZE >= length)
+            return false;
+        int bit = BIT_INDEX[(int)((n - base) % WHEEL_SIZE)];
+        if (bit < 0)
+            return false;
+        long k = (n - base) / WHEEL_SIZE;
+        return (words[(int)(k >>> 3)] & (1L << (((k & 7) << 3) + bit))) != 0;
+    }
+
+    /**
+     * Mark the given number as prime. The number must be inside the bitmap and coprime to 30.
+     * @param n number
+     */
+    public void set(long n) {
+        if (n < base || (n - base) / WHEEL_SIZE >= length || BIT_INDEX[(int)((n - base) % WHEEL_SIZE)] < 0)
+            throw new IllegalArgumentException("Number " + n + " can not be stored in the bitmap");
+        int bit = BIT_INDEX[(int)((n - base) % WHEEL_SIZE)];
+        long k = (n - base) / WHEEL_SIZE;
+        words[(int)(k >>> 3)] |= 1L << (((k & 7) << 3) + bit);
+    }
+
+    /**
+     * Mark all numbers marked as prime in the given bitmap as prime in this bitmap.
+     * The given bitmap must be fully covered by this bitmap.
+     * @param other bitmap to merge
+     */
+    public void or(WheelBitmap other) {
+        long offset = (other.base - base) / WHEEL_SIZE;
+        if (other.base < base || offset + other.length > length)
+            throw new IllegalArgumentException("Bitmap is not covered by this bitmap");
+        // both bases are multiples of 30 so the bitmaps are shifted by a whole number of bytes
+        long bitOffset = offset * 8;
+        int lastWord = (other.length + 7) >>> 3;
+        for (int i = 0; i < lastWord; i++) {
+            long word = other.words[i];
+            if (i == lastWord - 1 && (other.length & 7) != 0)
+                word &= (1L << ((other.length & 7) << 3)) - 1;
+            if (word == 0)
+                continue;
+            long target = bitOffset + 64L * i;
+            int w = (int)(target >>> 6);
+            int shift = (int)(target & 63);
+            words[w] |= word << shift;
+            if (shift != 0 && w + 1 < words.length)
+                words[w + 1] |= word >>> (64 - shift);
+        }
+    }
+
+    /**
+     * Append all numbers marked as prime in range [from..to] to the given sequence in ascending order.
+     * @param from range start
+     * @param to range end
+     * @param primes sequence of primes
+     */
+    public void appendTo(long from, long to, PrimeSequence primes) {
+        appendTo(LongBuffer.wrap(words), base, length, from, to, primes);
+    }
+
+    /**
+     * Count all numbers marked as prime in range [from..to].
+     * @param from range start
+     * @param to range end
+     * @return number of primes
+     */
+    public long count(long from, long to) {
+        return count(LongBuffer.wrap(words), base, length, from, to);
+    }
+
+    /**
+     * Append all numbers marked as prime in range [from..to] to the given sequence in ascending order, reading
+     * the bitmap directly from the given buffer, e.g. a memory-mapped file. The words are read using absolute
+     * positions, so the buffer may be shared by multiple threads.
+     * @param words bitmap words
+     * @param base first number covered by the bitmap, a multiple of 30
+     * @param length number of bytes
+     * @param from range start
+     * @param to range end
+     * @param primes sequence of primes
+     */
+    public static void appendTo(LongBuffer words, long base, int length, long from, long to, PrimeSequence primes) {
+        long start = bitPosition(base, length, from);
+        long end = bitPosition(base, length, to == Long.MAX_VALUE ? to : to + 1);
+        if (start >= end)
+            return;
+        int firstWord = (int)(start >>> 6);
+        int lastWord = (int)((end - 1) >>> 6);
+        for (int i = firstWord; i <= lastWord; i++) {
+            long word = words.get(i);
+            if (i == firstWord)
+                word &= -1L << (start & 63);
+            if (i == lastWord && (end & 63) != 0)
+                word &= (1L << (end & 63)) - 1;
+            long wordBase = base + (long)i * 8 * WHEEL_SIZE;
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                primes.add(wordBase + (bit >>> 3) * WHEEL_SIZE + RESIDUES[bit & 7]);
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * Count all numbers marked as prime in range [from..to], reading the bitmap directly from the given buffer.
+     * @param words bitmap words
+     * @param base first number covered by the bitmap, a multiple of 30
+     * @param length number of bytes
+     * @param from range start
+     * @param to range end
+     * @return number of primes
+     */
+    public static long count(LongBuffer words, long base, int length, long from, long to) {
+        long start = bitPosition(base, length, from);
+        long end = bitPosition(base, length, to == Long.MAX_VALUE ? to : to + 1);
+        if (start >= end)
+            return 0;
+        int firstWord = (int)(start >>> 6);
+        int lastWord = (int)((end - 1) >>> 6);
+        long count = 0;
+        for (int i = firstWord; i <= lastWord; i++) {
+            long word = words.get(i);
+            if (i == firstWord)
+                word &= -1L << (start & 63);
+            if (i == lastWord && (end & 63) != 0)
+                word &= (1L << (end & 63)) - 1;
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Get the position of the first bit representing a number greater or equal to the given one,
+     * clamped to the bounds of the bitmap.
+     */
+    private static long bitPosition(long base, int length, long n) {
+        if (n <= base)
+            return 0;
+        long k = (n - base) / WHEEL_SIZE;
+        if (k >= length)
+            return length * 8L;
+        return k * 8 + RANK[(int)((n - base) % WHEEL_SIZE)];
+    }
+}
@@ -0,0 +1,125 @@
+package prime.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tests for {@link BasePrimeTable}.
+ */
+public class BasePrimeTableTest {
+    @Test
+    public void testPrimes() {
+        long bound = 1_000_000;
+        int[] primes = BasePrimeTable.upTo(bound);
+
+        Assert.assertTrue(BasePrimeTable.getBound() >= bound);
+        Assert.assertEquals(7, primes[0]);
+        int idx = 0;
+        for (long n = 7; n <= bound; n++) {
+            if (BigInteger.valueOf(n).isProbablePrime(30))
+                Assert.assertEquals(n, Integer.toUnsignedLong(primes[idx++]));
+        }
+        // the table may contain more primes than required, all of them in ascending order
+        for (int i = 1; i < primes.length; i++)
+            Assert.assertTrue(Integer.compareUnsigned(primes[i - 1], primes[i]) < 0);
+    }
+
+    @Test
+    public void testExtendFromInitialBound() {
+        // the routine calibrated by the planning generator gives the same primes as the plain sieve
+        int[] initialPrimes = SieveOfEratosthenesPrimeGenerator.basePrimes((int)BasePrimeTable.INITIAL_BOUND);
+        Assert.assertArrayEquals(SieveOfEratosthenesPrimeGenerator.basePrimes(10_000_000),
+                BasePrimeTable.extend(initialPrimes, BasePrimeTable.INITIAL_BOUND + 1, 10_000_000));
+    }
+
+    @Test
+    public void testExtension() {
+        int[] small = BasePrimeTable.upTo(1000);
+        long bound = BasePrimeTable.getBound() + 10 * SegmentSieve.SEGMENT_SIZE;
+        int[] large = BasePrimeTable.upTo(bound);
+
+        // the table is extended, never rebuilt: the primes found before stay the same
+        Assert.assertTrue(large.length > small.length);
+        for (int i = 0; i < small.length; i++)
+            Assert.assertEquals(small[i], large[i]);
+        Assert.assertSame(large, BasePrimeTable.upTo(1000));
+        Assert.assertSame(large, BasePrimeTable.upTo(bound));
+    }
+
+    @Test
+    public void testConcurrentExtension() {
+        long bound = BasePrimeTable.getBound() + 20 * SegmentSieve.SEGMENT_SIZE;
+        List<CompletableFuture<int[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            futures.add(CompletableFuture.supplyAsync(() -> BasePrimeTable.upTo(bound)));
+
+        // all requests share a single copy of the table
+        int[] primes = futures.get(0).join();
+        for (CompletableFuture<int[]> future : futures)
+            Assert.assertSame(primes, future.join());
+        Assert.assertEquals(PrimeCounter.count(7, BasePrimeTable.getBound()),
+                BasePrimeTable.upTo(bound).length);
+    }
+
+    @Test
+    public void testMaxBound() {
+        // the table may have been extended up to the largest bound by the other tests already
+        if (BasePrimeTable.getBound() > BasePrimeTable.MAX_BOUND - 100 * SegmentSieve.SEGMENT_SIZE)
+            return;
+        PlanningPrimeGenerator planner = new PlanningPrimeGenerator();
+        long maxBound = BasePrimeTable.getBound() + SegmentSieve.SEGMENT_SIZE;
+        BasePrimeTable.setMaxBound(maxBound);
+        try {
+            // the table is extended up to a whole segment, so the bound is checked beyond that
+            BasePrimeTable.upTo(maxBound);
+            long sqrt = maxBound + 2 * SegmentSieve.SEGMENT_SIZE;
+            long limit = sqrt * sqrt;
+            try {
+                new SieveOfEratosthenesSegmentedPrimeGenerator().generate(limit - 1000, limit);
+                Assert.fail("Base primes beyond the maximum bound should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                PrimeCounter.checkRange(limit - 1000, limit);
+                Assert.fail("Counting beyond the maximum bound should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            // the planner sends the range to the primality test instead
+            Assert.assertEquals(PlanningPrimeGenerator.Engine.PRIMALITY_TEST, planner.plan(limit - 1000, limit));
+            Assert.assertEquals(new MillerRabinParallelPrimeGenerator().generate(limit - 1000, limit),
+                    planner.generate(limit - 1000, limit));
+            Assert.assertTrue(BasePrimeTable.getBound() < sqrt);
+        } finally {
+            BasePrimeTable.setMaxBound(BasePrimeTable.MAX_BOUND);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncorrectMaxBound() {
+        BasePrimeTable.setMaxBound(1000);
+    }
+
+    @Test
+    public void testLargestBound() {
+        long from = Long.MAX_VALUE - 100_000;
+        // the whole table is required only once, so it must fit into the default heap with the previous one
+        PrimeSequence primes = new SieveOfEratosthenesSegmentedPrimeGenerator().generate(from, Long.MAX_VALUE);
+
+        Assert.assertEquals(BasePrimeTable.MAX_BOUND, BasePrimeTable.getBound());
+        Assert.assertEquals(PrimeCounter.pi(BasePrimeTable.MAX_BOUND) - 3, BasePrimeTable.size());
+        int idx = 0;
+        for (long n = from; n > 0; n++) {
+            if (BigInteger.valueOf(n).isProbablePrime(30))
+                Assert.assertEquals(n, primes.get(idx++));
+        }
+        Assert.assertEquals(primes.size(), idx);
+    }
+}
@@ -0,0 +1,274 @@
+package prime.generator;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import prime.ConcurrentRangePrimeCache;
+import prime.PrimeCache;
+import prime.PrimeCacheLookup;
+import prime.Range;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for {@link prime.ConcurrentRangePrimeCache} storage.
+ */
+public class ConcurrentRangePrimeCacheTest {
+
+    private final PrimeGenerator generator = new SieveOfEratosthenesSegmentedPrimeGenerator();
+
+    @Test
+    public void testSmallRanges() {
+        for (int from = 0; from <= 40; from++) {
+            for (int to = from; to <= 100; to++) {
+                PrimeSequence primes = generator.generate(from, to);
+                if (primes.isEmpty())
+                    continue; // empty ranges are not cached
+                PrimeCache cache = new ConcurrentRangePrimeCache();
+                cache.addAll(from, to, primes);
+                Assert.assertEquals(from + ".." + to, generator.generate(from, to), cache.getPrimes(from, to));
+                Assert.assertNull(cache.getPrimes(from, to + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testMergedRanges() {
+        Random random = new Random(7);
+        PrimeCache cache = new ConcurrentRangePrimeCache();
+        for (int i = 0; i < 200; i++) {
+            long from = random.nextInt(1_000_000) + 1;
+            long to = from + random.nextInt(50_000);
+            cache.addAll(from, to, generator.generate(from, to));
+
+            long queryFrom = from + random.nextInt((int)(to - from) + 1);
+            long queryTo = queryFrom + random.nextInt((int)(to - queryFrom) + 1);
+            Assert.assertEquals(generator.generate(queryFrom, queryTo), cache.getPrimes(queryFrom, queryTo));
+        }
+    }
+
+    @Test
+    public void testHighOffset() {
+        long from = 1_000_000_000_000L - 12_345;
+        long to = from + 1_000_000;
+        PrimeCache cache = new ConcurrentRangePrimeCache();
+        cache.addAll(from, to, generator.generate(from, to));
+        cache.addAll(from + 500_017, to + 500_000, generator.generate(from + 500_017, to + 500_000));
+        Assert.assertEquals(generator.generate(from + 7, to + 499_999), cache.getPrimes(from + 7, to + 499_999));
+    }
+
+    @Test
+    public void testEviction() {
+        ConcurrentRangePrimeCache cache = new ConcurrentRangePrimeCache(2500);
+        request(cache, 1, 30_000);
+        request(cache, 100_001, 130_000);
+        request(cache, 1, 30_000); // hit, so the second range becomes the least recently used one
+        request(cache, 200_001, 230_000);
+
+        Assert.assertNotNull(cache.getPrimes(1, 30_000));
+        Assert.assertNull(cache.getPrimes(100_001, 130_000));
+        Assert.assertNotNull(cache.getPrimes(200_001, 230_000));
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(0, cache.getRejectionCount());
+        Assert.assertTrue(cache.getSize() <= 2500);
+    }
+
+    @Test
+    public void testAdmission() {
+        ConcurrentRangePrimeCache cache = new ConcurrentRangePrimeCache(2500);
+        request(cache, 1, 30_000);
+        request(cache, 1, 30_000);
+        request(cache, 1, 30_000);
+        // one-off large range must not flush the frequently used one
+        request(cache, 100_001, 160_000);
+        // too large for the cache
+        request(cache, 200_001, 300_000);
+
+        Assert.assertNotNull(cache.getPrimes(1, 30_000));
+        Assert.assertNull(cache.getPrimes(100_001, 160_000));
+        Assert.assertEquals(0, cache.getEvictionCount());
+        Assert.assertEquals(2, cache.getRejectionCount());
+        Assert.assertEquals(3, cache.getHitCount());
+        Assert.assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testHotRangeAdmission() {
+        ConcurrentRangePrimeCache cache = new ConcurrentRangePrimeCache(2500);
+        request(cache, 1, 30_000);
+        request(cache, 1, 30_000);
+        request(cache, 100_001, 130_000);
+        request(cache, 100_001, 130_000);
+
+        // the gaps of a request are generated and added in parts, not as the requested range
+        long from = 300_001;
+        long to = 360_000;
+        int rejected = 0;
+        for (int i = 0; i < 10 && cache.getPrimes(from, to) == null; i++) {
+            cache.addAll(from, 329_999, generator.generate(from, 329_999));
+            cache.addAll(330_000, to, generator.generate(330_000, to));
+            rejected++;
+        }
+        // the hot range displaces the cold ones once it is requested more often than they are used
+        Assert.assertEquals(generator.generate(from, to), cache.getPrimes(from, to));
+        Assert.assertTrue(rejected > 1);
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        Assert.assertTrue(cache.getSize() <= 2500);
+    }
+
+    @Test
+    public void testPartialLookup() {
+        PrimeCache cache = new ConcurrentRangePrimeCache();
+        cache.addAll(1, 1000, generator.generate(1, 1000));
+        cache.addAll(5000, 6000, generator.generate(5000, 6000));
+        cache.addAll(6001, 7000, generator.generate(6001, 7000));
+
+        PrimeCacheLookup lookup = cache.lookup(500, 10_000);
+        Assert.assertFalse(lookup.isComplete());
+        Assert.assertEquals(2, lookup.getGaps().size());
+        Assert.assertEquals(new Range(1001, 4999), lookup.getGaps().get(0));
+        Assert.assertEquals(new Range(7001, 10_000), lookup.getGaps().get(1));
+
+        List<PrimeSequence> gapPrimes = new ArrayList<>();
+        for (Range gap : lookup.getGaps())
+            gapPrimes.add(generator.generate(gap.getFrom(), gap.getTo()));
+        Assert.assertEquals(generator.generate(500, 10_000), lookup.merge(gapPrimes));
+
+        lookup = cache.lookup(1, 100);
+        Assert.assertTrue(lookup.isComplete());
+        Assert.assertEquals(generator.generate(1, 100), lookup.merge(new ArrayList<>()));
+        Assert.assertEquals(1, cache.lookup(1001, 4999).getGaps().size());
+    }
+
+    @Test
+    public void testCachedChunks() {
+        PrimeCache cache = new ConcurrentRangePrimeCache();
+        cache.addAll(1, 3_000_000, generator.generate(1, 3_000_000));
+        PrimeCacheLookup lookup = cache.lookup(1, 2_500_000);
+        Assert.assertTrue(lookup.isCached(0));
+
+        PrimeSequence primes = new PrimeSequence();
+        long[] low = {1};
+        lookup.forEachCachedChunk(0, 1_000_000, chunk -> {
+            // each chunk holds the primes of at most one million numbers
+            Assert.assertTrue(chunk.get(0) >= low[0] && chunk.get(chunk.size() - 1) < low[0] + 1_000_000);
+            low[0] += 1_000_000;
+            primes.addAll(chunk);
+        });
+        Assert.assertEquals(3, (low[0] - 1) / 1_000_000);
+        Assert.assertEquals(generator.generate(1, 2_500_000), primes);
+    }
+
+    @Test
+    public void testConcurrentReadsDuringMerges() throws Exception {
+        ConcurrentRangePrimeCache cache = new ConcurrentRangePrimeCache();
+        cache.addAll(500_000, 600_000, generator.generate(500_000, 600_000));
+        PrimeSequence expected = generator.generate(500_000, 600_000);
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executorService.submit(() -> {
+                    // the preloaded range must stay visible while it is merged with the new ranges
+                    while (!done.get())
+                        Assert.assertEquals(expected, cache.getPrimes(500_000, 600_000));
+                }));
+            }
+            Random random = new Random(3);
+            for (int i = 0; i < 200; i++) {
+                long from = random.nextInt(1_000_000) + 1;
+                long to = from + random.nextInt(20_000);
+                cache.addAll(from, to, generator.generate(from, to));
+            }
+            done.set(true);
+            for (Future<?> reader : readers)
+                reader.get(5, TimeUnit.SECONDS);
+            // the merged ranges never overlap, each takes at most one byte more than the numbers it covers
+            Assert.assertTrue(cache.getSize() <= WheelBitmap.bytesFor(1, 1_020_000) + 200);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPartialHitsDuringSteadyUpdates() throws Exception {
+        ConcurrentRangePrimeCache cache = new ConcurrentRangePrimeCache();
+        for (long from = 1; from < 1_000_000; from += 20_000)
+            cache.addAll(from, from + 9_999, generator.generate(from, from + 9_999));
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            // unrelated updates keep the cache busy all the time
+            Future<?> writer = executorService.submit(() -> {
+                PrimeSequence primes = generator.generate(2_000_000, 2_001_000);
+                while (!done.get())
+                    cache.addAll(2_000_000, 2_001_000, primes);
+            });
+            // lookups with gaps are only repeated once, so they complete regardless of the updates
+            for (int i = 0; i < 200; i++) {
+                PrimeCacheLookup lookup = cache.lookup(1, 1_000_000);
+                Assert.assertFalse(lookup.isComplete());
+                Assert.assertEquals(generator.generate(1, 10_000), lookup.getCachedPrimes(0));
+            }
+            done.set(true);
+            writer.get(5, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFragmentedRanges() {
+        PrimeCache cache = new ConcurrentRangePrimeCache();
+        PrimeSequence primes = generator.generate(1, 10_000_000);
+        for (long from = 1; from < 10_000_000; from += 1000)
+            cache.addAll(from, from + 499, primes.subSequence(from, from + 499));
+
+        Random random = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            long from = random.nextInt(10_000_000) + 1;
+            long to = from + random.nextInt(3000);
+            PrimeCacheLookup lookup = cache.lookup(from, to);
+            List<PrimeSequence> gapPrimes = new ArrayList<>();
+            for (Range gap : lookup.getGaps()) {
+                Assert.assertTrue((gap.getFrom() - 1) % 1000 >= 500 && (gap.getTo() - 1) % 1000 >= 500);
+                gapPrimes.add(primes.subSequence(gap.getFrom(), gap.getTo()));
+            }
+            Assert.assertEquals(primes.subSequence(from, to), lookup.merge(gapPrimes));
+        }
+    }
+
+    @Test
+    public void testAdjacentRanges() {
+        PrimeCache cache = new ConcurrentRangePrimeCache();
+        PrimeSequence primes = generator.generate(1, 64 * 30_000);
+        for (long from = 1; from < 64 * 30_000; from += 30_000)
+            cache.addAll(from, from + 29_999, primes.subSequence(from, from + 29_999));
+        // adjacent ranges are coalesced like the carries of a binary counter, i.e. into O(log n) ranges
+        PrimeCacheLookup lookup = cache.lookup(1, 64 * 30_000);
+        Assert.assertTrue(lookup.isComplete());
+        Assert.assertTrue(lookup.getParts().size() <= 7);
+        Assert.assertEquals(primes, lookup.merge(new ArrayList<>()));
+
+        // only the part not cached yet is added, the overlapping ranges are left as they are
+        long size = cache.getSize();
+        cache.addAll(30_001, 64 * 30_000 + 30_000, generator.generate(30_001, 64 * 30_000 + 30_000));
+        Assert.assertTrue(cache.getSize() <= size + WheelBitmap.bytesFor(64 * 30_000 + 1, 64 * 30_000 + 30_000));
+        Assert.assertEquals(generator.generate(1, 65 * 30_000), cache.getPrimes(1, 65 * 30_000));
+    }
+
+    private void request(PrimeCache cache, long from, long to) {
+        PrimeSequence expected = generator.generate(from, to);
+        PrimeSequence primes = cache.getPrimes(from, to);
+        if (primes == null)
+            cache.addAll(from, to, expected);
+        else
+            Assert.assertEquals(expected, primes);
+    }
+}
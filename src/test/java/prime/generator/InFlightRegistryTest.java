@@ -0,0 +1,209 @@
+package prime.generator;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import prime.InFlightRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link prime.InFlightRegistry}.
+ */
+public class InFlightRegistryTest {
+
+    private final PrimeGenerator generator = new SieveOfEratosthenesSegmentedPrimeGenerator();
+
+    @Test
+    public void testBlocks() {
+        InFlightRegistry registry = new InFlightRegistry();
+        long from = InFlightRegistry.BLOCK_SIZE - 1000;
+        long to = 2 * InFlightRegistry.BLOCK_SIZE + 1000;
+        List<Long> starts = new ArrayList<>();
+        PrimeSequence primes = registry.generate(from, to, (blockFrom, blockTo) -> {
+            synchronized (starts) {
+                starts.add(blockFrom);
+            }
+            return generator.generate(blockFrom, blockTo);
+        });
+        Assert.assertEquals(generator.generate(from, to), primes);
+        // a range wider than a block is split at the block boundaries
+        starts.sort(null);
+        Assert.assertEquals(Arrays.asList(from, InFlightRegistry.BLOCK_SIZE, 2 * InFlightRegistry.BLOCK_SIZE), starts);
+        Assert.assertEquals(3, registry.getComputationCount());
+        Assert.assertEquals(0, registry.getDeduplicatedCount());
+    }
+
+    @Test
+    public void testNarrowRange() {
+        InFlightRegistry registry = new InFlightRegistry();
+        // a narrow range is computed at its own width, even if it crosses a block boundary
+        for (long from : new long[] {2_000_000_000_000_000_000L, 3 * InFlightRegistry.BLOCK_SIZE - 50}) {
+            long to = from + 100;
+            List<long[]> computed = new ArrayList<>();
+            PrimeSequence primes = registry.generate(from, to, (partFrom, partTo) -> {
+                computed.add(new long[] {partFrom, partTo});
+                return new MillerRabinParallelPrimeGenerator().generate(partFrom, partTo);
+            });
+            Assert.assertEquals(new MillerRabinParallelPrimeGenerator().generate(from, to), primes);
+            Assert.assertEquals(1, computed.size());
+            Assert.assertEquals(from, computed.get(0)[0]);
+            Assert.assertEquals(to, computed.get(0)[1]);
+        }
+    }
+
+    @Test
+    public void testExecutor() {
+        long from = InFlightRegistry.BLOCK_SIZE - 1000;
+        long to = 2 * InFlightRegistry.BLOCK_SIZE + 1000;
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            InFlightRegistry registry = new InFlightRegistry(executorService);
+            Assert.assertEquals(generator.generate(from, to), registry.generate(from, to, generator::generate));
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        // the blocks rejected by a saturated executor are computed by the calling thread
+        InFlightRegistry saturated = new InFlightRegistry(task -> {
+            throw new RejectedExecutionException();
+        });
+        Assert.assertEquals(generator.generate(from, to), saturated.generate(from, to, generator::generate));
+        Assert.assertEquals(3, saturated.getComputationCount());
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        InFlightRegistry registry = new InFlightRegistry();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<PrimeSequence>> futures = new ArrayList<>();
+            futures.add(executorService.submit(() -> registry.generate(1000, 100_000, (blockFrom, blockTo) -> {
+                computations.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return generator.generate(blockFrom, blockTo);
+            })));
+            started.await();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executorService.submit(() -> registry.generate(1000, 100_000, (blockFrom, blockTo) -> {
+                    computations.incrementAndGet();
+                    return generator.generate(blockFrom, blockTo);
+                })));
+            }
+            while (registry.getDeduplicatedCount() < 4)
+                Thread.sleep(1);
+            release.countDown();
+
+            for (Future<PrimeSequence> future : futures)
+                Assert.assertEquals(generator.generate(1000, 100_000), future.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, computations.get());
+            Assert.assertEquals(1, registry.getComputationCount());
+            Assert.assertEquals(4, registry.getDeduplicatedCount());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOverlappingRequests() throws Exception {
+        InFlightRegistry registry = new InFlightRegistry();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            // overlapping but not identical ranges share the computation of the overlap
+            Future<PrimeSequence> first = executorService.submit(() -> registry.generate(1000, 100_000,
+                    (blockFrom, blockTo) -> {
+                        computations.incrementAndGet();
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return generator.generate(blockFrom, blockTo);
+                    }));
+            started.await();
+            List<long[]> computed = new CopyOnWriteArrayList<>();
+            Future<PrimeSequence> second = executorService.submit(() -> registry.generate(50_000, 200_000,
+                    (partFrom, partTo) -> {
+                        computations.incrementAndGet();
+                        computed.add(new long[] {partFrom, partTo});
+                        return generator.generate(partFrom, partTo);
+                    }));
+            while (registry.getDeduplicatedCount() < 1)
+                Thread.sleep(1);
+            release.countDown();
+
+            Assert.assertEquals(generator.generate(1000, 100_000), first.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(generator.generate(50_000, 200_000), second.get(5, TimeUnit.SECONDS));
+            // the second request only computes the part beyond the first one
+            Assert.assertEquals(2, computations.get());
+            Assert.assertEquals(1, computed.size());
+            Assert.assertEquals(100_001, computed.get(0)[0]);
+            Assert.assertEquals(200_000, computed.get(0)[1]);
+            Assert.assertEquals(2, registry.getComputationCount());
+            Assert.assertEquals(1, registry.getDeduplicatedCount());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledRequest() throws Exception {
+        InFlightRegistry registry = new InFlightRegistry();
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<PrimeSequence> cancelled = executorService.submit(() -> registry.generate(1000, 100_000,
+                    (blockFrom, blockTo) -> {
+                        started.countDown();
+                        try {
+                            new CountDownLatch(1).await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new CancellationException("Interrupted");
+                        }
+                        return generator.generate(blockFrom, blockTo);
+                    }));
+            started.await();
+            Future<PrimeSequence> waiting = executorService.submit(() -> registry.generate(1000, 100_000,
+                    generator::generate));
+            while (registry.getDeduplicatedCount() < 1)
+                Thread.sleep(1);
+            cancelled.cancel(true);
+
+            // the request waiting for the computation of the cancelled one computes its range itself
+            Assert.assertEquals(generator.generate(1000, 100_000), waiting.get(5, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailure() {
+        InFlightRegistry registry = new InFlightRegistry();
+        try {
+            registry.generate(1, 100, (blockFrom, blockTo) -> {
+                throw new IllegalStateException("failed");
+            });
+            Assert.fail("Exception expected");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+        // failed computations are not kept in the registry
+        Assert.assertEquals(generator.generate(1, 100), registry.generate(1, 100, generator::generate));
+    }
+}
@@ -0,0 +1,162 @@
+package prime.generator;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import prime.MappedPrimeCache;
+import prime.PrimeCache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Tests for {@link prime.MappedPrimeCache}.
+ */
+public class MappedPrimeCacheTest {
+
+    private final PrimeGenerator generator = new SieveOfEratosthenesSegmentedPrimeGenerator();
+    private Path directory;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("prime-cache");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        for (String file : new String[] {"segments.dat", "index.dat", "segments.dat.compacted", "index.dat.compacted"})
+            Files.deleteIfExists(directory.resolve(file));
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void testOverlappingRanges() throws Exception {
+        Random random = new Random(11);
+        PrimeCache cache = new MappedPrimeCache(directory);
+        for (int i = 0; i < 100; i++) {
+            long from = random.nextInt(1_000_000) + 1;
+            long to = from + random.nextInt(50_000);
+            cache.addAll(from, to, generator.generate(from, to));
+
+            long queryFrom = from + random.nextInt((int)(to - from) + 1);
+            long queryTo = queryFrom + random.nextInt((int)(to - queryFrom) + 1);
+            Assert.assertEquals(generator.generate(queryFrom, queryTo), cache.getPrimes(queryFrom, queryTo));
+        }
+        cache.addAll(1, 100, generator.generate(1, 100));
+        cache.addAll(50, 300, generator.generate(50, 300));
+        cache.addAll(301, 400, generator.generate(301, 400));
+        Assert.assertEquals(generator.generate(2, 399), cache.getPrimes(2, 399));
+        Assert.assertNull(cache.getPrimes(0, 401));
+        cache.close();
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        long from = 1_000_000_000_000L;
+        long to = from + 1_000_000;
+        PrimeCache cache = new MappedPrimeCache(directory);
+        cache.addAll(from, to, generator.generate(from, to));
+        cache.addAll(1, 1000, generator.generate(1, 1000));
+
+        // simulate an update interrupted by a crash
+        Files.write(directory.resolve("segments.dat"), new byte[100], StandardOpenOption.APPEND);
+        Files.write(directory.resolve("index.dat"), new byte[13], StandardOpenOption.APPEND);
+
+        PrimeCache restarted = new MappedPrimeCache(directory);
+        Assert.assertEquals(generator.generate(from, to), restarted.getPrimes(from, to));
+        Assert.assertEquals(generator.generate(1, 1000), restarted.getPrimes(1, 1000));
+        Assert.assertNull(restarted.getPrimes(1, to));
+
+        restarted.addAll(1001, 2000, generator.generate(1001, 2000));
+        try (PrimeCache reopened = new MappedPrimeCache(directory)) {
+            Assert.assertEquals(generator.generate(1, 2000), reopened.getPrimes(1, 2000));
+        }
+        cache.close();
+        restarted.close();
+    }
+
+    @Test
+    public void testTornSegment() throws Exception {
+        PrimeCache cache = new MappedPrimeCache(directory);
+        cache.addAll(1, 1000, generator.generate(1, 1000));
+        cache.addAll(2001, 3000, generator.generate(2001, 3000));
+        cache.addAll(4001, 5000, generator.generate(4001, 5000));
+        cache.close();
+
+        // simulate a crash in the middle of writing the second segment, whose record made it to the index
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(directory.resolve("index.dat")))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long offset = index.getLong(48 + 32);
+        try (FileChannel segments = FileChannel.open(directory.resolve("segments.dat"), StandardOpenOption.WRITE)) {
+            segments.write(ByteBuffer.wrap(new byte[] {-1, -1, -1, -1}), offset + 8);
+        }
+
+        try (PrimeCache restarted = new MappedPrimeCache(directory)) {
+            Assert.assertEquals(generator.generate(1, 1000), restarted.getPrimes(1, 1000));
+            Assert.assertNull(restarted.getPrimes(2001, 3000));
+            Assert.assertNull(restarted.getPrimes(4001, 5000));
+            Assert.assertEquals(48, Files.size(directory.resolve("index.dat")));
+
+            restarted.addAll(2001, 3000, generator.generate(2001, 3000));
+            Assert.assertEquals(generator.generate(2001, 3000), restarted.getPrimes(2001, 3000));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        long maxCacheBytes = 64 * 1024;
+        long width = 300_000; // 10000 bytes of bitmap
+        PrimeCache cache = new MappedPrimeCache(directory, maxCacheBytes);
+        cache.addAll(1, width, generator.generate(1, width));
+        for (long from = width + 1; from < 20 * width; from += width) {
+            cache.addAll(from, from + width - 1, generator.generate(from, from + width - 1));
+            // keep the first range the most recently used one
+            Assert.assertEquals(generator.generate(1, width), cache.getPrimes(1, width));
+            Assert.assertTrue(cache.getSize() <= maxCacheBytes);
+        }
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        Assert.assertNull(cache.getPrimes(width + 1, 2 * width));
+        long last = 19 * width + 1;
+        Assert.assertEquals(generator.generate(last, last + width - 1), cache.getPrimes(last, last + width - 1));
+        Assert.assertTrue(Files.size(directory.resolve("index.dat")) < 20 * 48);
+
+        try (PrimeCache restarted = new MappedPrimeCache(directory, maxCacheBytes)) {
+            Assert.assertEquals(generator.generate(1, width), restarted.getPrimes(1, width));
+            Assert.assertEquals(generator.generate(last, last + width - 1),
+                    restarted.getPrimes(last, last + width - 1));
+        }
+        cache.close();
+
+        // a range larger than half of the limit is never stored
+        try (PrimeCache small = new MappedPrimeCache(directory, 16 * 1024)) {
+            long from = 100 * width;
+            small.addAll(from, from + width - 1, generator.generate(from, from + width - 1));
+            Assert.assertNull(small.getPrimes(from, from + width - 1));
+            Assert.assertEquals(1, small.getRejectionCount());
+        }
+    }
+
+    @Test
+    public void testManyTinyRanges() throws Exception {
+        // more ranges than the memory map areas allowed per process by default (vm.max_map_count = 65530)
+        int count = 70_000;
+        PrimeSequence primes = generator.generate(1, count * 100L);
+        PrimeCache cache = new MappedPrimeCache(directory);
+        for (long from = 1; from < count * 100L; from += 100)
+            cache.addAll(from, from + 49, primes.subSequence(from, from + 49));
+
+        PrimeCache restarted = new MappedPrimeCache(directory);
+        for (PrimeCache c : new PrimeCache[] {cache, restarted}) {
+            Assert.assertEquals(primes.subSequence(1, 50), c.getPrimes(1, 50));
+            Assert.assertEquals(primes.subSequence(3_456_701, 3_456_750), c.getPrimes(3_456_701, 3_456_750));
+            Assert.assertNull(c.getPrimes(3_456_701, 3_456_751));
+            c.close();
+        }
+    }
+}
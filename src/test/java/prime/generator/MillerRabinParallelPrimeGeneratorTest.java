@@ -0,0 +1,32 @@
+package prime.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+/**
+ * Tests for {@link MillerRabinParallelPrimeGenerator}.
+ */
+public class MillerRabinParallelPrimeGeneratorTest extends PrimeGeneratorTestBase {
+    @Override
+    protected PrimeGenerator getPrimeGenerator() {
+        return new MillerRabinParallelPrimeGenerator();
+    }
+
+    @Test
+    public void testVeryHighOffsetWindow() {
+        long from = 1_000_000_000_000_000_000L;
+        long to = from + 10_000L;
+        PrimeSequence primes = getPrimeGenerator().generate(from, to);
+
+        Assert.assertTrue("must produce at least one prime", !primes.isEmpty());
+        int idx = 0;
+        for (long n = from; n <= to; n++) {
+            if (BigInteger.valueOf(n).isProbablePrime(50)) {
+                Assert.assertEquals(n, primes.get(idx++));
+            }
+        }
+        Assert.assertEquals(primes.size(), idx);
+    }
+}
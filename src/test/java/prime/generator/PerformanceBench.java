@@ -1,9 +1,17 @@
 package prime.generator;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
-import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
@@ -11,28 +19,115 @@ import org.openjdk.jmh.runner.options.OptionsBuilder;
 
 /**
  * Performance test bench for all generators.
+ *
+ * 'Limit' benchmarks generate all primes up to the given limit, 'Range' benchmarks generate primes in a range
+ * of fixed width starting at the given offset. Generators are created once per trial, so only the generation
+ * itself is measured.
  */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
 public class PerformanceBench {
 
     private static final long TEST_LIMIT = 1_000_000L;
 
     private static final long TEST_RANGE_START = 10_000_000_000L;
     private static final long TEST_RANGE_END = 10_001_000_000L;
+    private static final long TEST_RANGE_WIDTH = 1_000_000L;
+
+    private static final long TEST_SCALING_RANGE_END = 10_100_000_000L;
+
+    /**
+     * Sieve generator and limit used to measure generation of all primes up to the limit.
+     */
+    @State(Scope.Benchmark)
+    public static class LimitGenerator {
+        @Param({"SieveOfEratosthenesPrimeGenerator", "SieveOfEratosthenesSegmentedPrimeGenerator",
+                "SieveOfEratosthenesParallelSegmentedPrimeGenerator", "SieveOfAtkinPrimeGenerator",
+                "SieveOfSundaramPrimeGenerator"})
+        public String generatorClass;
+
+        @Param({"1000000", "10000000", "100000000", "1000000000"})
+        public long limit;
+
+        public PrimeGenerator generator;
+
+        @Setup
+        public void setup() throws ReflectiveOperationException {
+            generator = createGenerator(generatorClass);
+        }
+    }
+
+    /**
+     * Range generator and offset used to measure generation of primes in a range far from zero.
+     */
+    @State(Scope.Benchmark)
+    public static class RangeGenerator {
+        @Param({"SieveOfEratosthenesSegmentedPrimeGenerator", "SieveOfEratosthenesParallelSegmentedPrimeGenerator",
+                "SieveOfAtkinPrimeGenerator", "MillerRabinParallelPrimeGenerator", "PlanningPrimeGenerator"})
+        public String generatorClass;
+
+        @Param({"1000000000", "1000000000000", "1000000000000000", "1000000000000000000"})
+        public long offset;
+
+        public PrimeGenerator generator;
+
+        @Setup
+        public void setup() throws ReflectiveOperationException {
+            generator = createGenerator(generatorClass);
+        }
+    }
+
+    /**
+     * Trial division generator, measured separately since it is too slow for large limits and offsets.
+     */
+    @State(Scope.Benchmark)
+    public static class TrialDivisionGenerator {
+        public PrimeGenerator generator = new TrialDivisionParallelPrimeGenerator();
+    }
+
+    /**
+     * Parallel generator with the given number of worker threads used to measure scaling with number of cores.
+     */
+    @State(Scope.Benchmark)
+    public static class ParallelGenerator {
+        @Param({"1", "2", "4", "8", "16", "32"})
+        public int parallelism;
+
+        public PrimeGenerator generator;
+
+        @Setup
+        public void setup() {
+            generator = new SieveOfEratosthenesParallelSegmentedPrimeGenerator(parallelism);
+        }
+    }
+
+    /**
+     * Segmented generator used as the single-threaded baseline of the scaling benchmarks.
+     */
+    @State(Scope.Benchmark)
+    public static class SegmentedGenerator {
+        public PrimeGenerator generator = new SieveOfEratosthenesSegmentedPrimeGenerator();
+    }
+
+    private static PrimeGenerator createGenerator(String className) throws ReflectiveOperationException {
+        return (PrimeGenerator)Class.forName(PrimeGenerator.class.getPackage().getName() + "." + className)
+                .newInstance();
+    }
 
     /*
      * ============================== HOW TO RUN THIS TEST: ====================================
      *
-     * Please make sure to build maven project first before running this test.
-     * From the project directory run:
+     * Please make sure to build the benchmarks first. From the project directory run:
      *
-     *    mvn clean install
+     *    mvn -P benchmarks clean package
      *
      * You can run this test:
      *
      * a) Via the command line:
-     *    $ mvn clean install
-     *    $ java -jar target/benchmarks.jar PerformanceBench -wi 5 -i 5 -f 1
-     *    (we requested 5 warmup/measurement iterations, single fork)
+     *    $ java -jar target/benchmarks.jar PerformanceBench -wi 5 -i 5 -f 1 -prof gc
+     *    (we requested 5 warmup/measurement iterations, single fork, allocation profiling)
+     *    Parameters can be narrowed down, e.g. -p limit=1000000,10000000
      *
      * b) Via the Java API:
      *    (see the JMH homepage for possible caveats when running from IDE:
@@ -45,52 +140,39 @@ public class PerformanceBench {
                 .warmupIterations(5)
                 .measurementIterations(5)
                 .forks(1)
+                .addProfiler(GCProfiler.class)
                 .build();
 
         new Runner(opts).run();
     }
 
     @Benchmark
-    @Group("LimitOnly")
-    @BenchmarkMode(Mode.AverageTime)
-    public void runSieveOfAtkinGenerator() {
-        new SieveOfAtkinPrimeGenerator().findAll(TEST_LIMIT);
+    public PrimeSequence runLimit(LimitGenerator state) {
+        return state.generator.generate(state.limit);
     }
 
     @Benchmark
-    @Group("LimitOnly")
-    @BenchmarkMode(Mode.AverageTime)
-    public void runSieveOfEratosthenesGenerator() {
-        new SieveOfEratosthenesPrimeGenerator().findAll(TEST_LIMIT);
+    public PrimeSequence runRange(RangeGenerator state) {
+        return state.generator.generate(state.offset, state.offset + TEST_RANGE_WIDTH);
     }
 
     @Benchmark
-    @Group("LimitOnly")
-    @BenchmarkMode(Mode.AverageTime)
-    public void runSieveOfEratosthenesSegmentedGenerator() {
-        new SieveOfEratosthenesSegmentedPrimeGenerator().findAll(TEST_LIMIT);
+    public PrimeSequence runTrialDivisionLimit(TrialDivisionGenerator state) {
+        return state.generator.generate(TEST_LIMIT);
     }
 
     @Benchmark
-    @Group("LimitOnly")
-    @BenchmarkMode(Mode.AverageTime)
-    public void runTrialDivisionPrimeGenerator() {
-        new TrialDivisionParallelPrimeGenerator().findAll(TEST_LIMIT);
+    public PrimeSequence runTrialDivisionRange(TrialDivisionGenerator state) {
+        return state.generator.generate(TEST_RANGE_START, TEST_RANGE_END);
     }
 
     @Benchmark
-    @Group("GenerateRange")
-    @BenchmarkMode(Mode.AverageTime)
-    public void runTrialDivisionPrimeGeneratorInRange() {
-        new TrialDivisionParallelPrimeGenerator().findAll(TEST_RANGE_START, TEST_RANGE_END);
+    public PrimeSequence runSieveOfEratosthenesSegmentedGeneratorScaling(SegmentedGenerator state) {
+        return state.generator.generate(TEST_RANGE_START, TEST_SCALING_RANGE_END);
     }
 
     @Benchmark
-    @Group("LimitOnly")
-    @BenchmarkMode(Mode.AverageTime)
-    public void runSieveOfSundaramPrimeGenerator() {
-        new SieveOfSundaramPrimeGenerator().findAll(TEST_LIMIT);
+    public PrimeSequence runSieveOfEratosthenesParallelSegmentedGeneratorScaling(ParallelGenerator state) {
+        return state.generator.generate(TEST_RANGE_START, TEST_SCALING_RANGE_END);
     }
-
-
 }
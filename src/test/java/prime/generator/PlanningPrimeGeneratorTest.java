@@ -0,0 +1,45 @@
+package prime.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import prime.generator.PlanningPrimeGenerator.Engine;
+
+/**
+ * Tests for {@link PlanningPrimeGenerator}.
+ */
+public class PlanningPrimeGeneratorTest extends PrimeGeneratorTestBase {
+    // calibrated once for all tests
+    private static final PlanningPrimeGenerator GENERATOR = new PlanningPrimeGenerator();
+
+    @Override
+    protected PrimeGenerator getPrimeGenerator() {
+        return GENERATOR;
+    }
+
+    @Test
+    public void testCalibration() {
+        for (Engine engine : Engine.values())
+            Assert.assertTrue(engine.name(), GENERATOR.getNumberCost(engine) > 0);
+    }
+
+    @Test
+    public void testPlan() {
+        // base primes up to 10^9 cost far more than testing a thousand candidates
+        Assert.assertEquals(Engine.PRIMALITY_TEST, GENERATOR.plan(1_000_000_000_000_000_000L,
+                1_000_000_000_000_001_000L));
+        Assert.assertTrue(GENERATOR.plan(1, 10_000_000) != Engine.PRIMALITY_TEST);
+        Assert.assertTrue(GENERATOR.plan(1_000_000_000L, 1_001_000_000L) != Engine.SIEVE);
+        Assert.assertTrue(GENERATOR.plan(1, Integer.MAX_VALUE) != Engine.SIEVE);
+    }
+
+    @Test
+    public void testRequestCounts() {
+        long before = GENERATOR.getRequestCount(Engine.PRIMALITY_TEST);
+        PrimeSequence primes = GENERATOR.generate(Long.MAX_VALUE - 100, Long.MAX_VALUE);
+        Assert.assertEquals(before + 1, GENERATOR.getRequestCount(Engine.PRIMALITY_TEST));
+        Assert.assertEquals(new MillerRabinParallelPrimeGenerator().generate(Long.MAX_VALUE - 100, Long.MAX_VALUE),
+                primes);
+        Assert.assertTrue(GENERATOR.generate(0, 1).isEmpty());
+    }
+}
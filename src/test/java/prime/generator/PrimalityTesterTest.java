@@ -0,0 +1,52 @@
+package prime.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Tests for {@link PrimalityTester}.
+ */
+public class PrimalityTesterTest {
+
+    // strong pseudoprimes to several prime bases and Carmichael numbers
+    private static final long[] PSEUDOPRIMES = {
+            561L, 1105L, 1729L, 2047L, 3215031751L, 2152302898747L, 3474749660383L, 341550071728321L,
+            3825123056546413051L, 318665857834031151L, 7999252175582851L, 585226005592931977L
+    };
+
+    @Test
+    public void testSmallNumbers() {
+        for (long n = 0; n <= 100_000; n++) {
+            Assert.assertEquals("n = " + n, BigInteger.valueOf(n).isProbablePrime(50), PrimalityTester.isPrime(n));
+        }
+    }
+
+    @Test
+    public void testPseudoprimes() {
+        for (long n : PSEUDOPRIMES) {
+            Assert.assertFalse("n = " + n, PrimalityTester.isPrime(n));
+        }
+    }
+
+    @Test
+    public void testLargeNumbers() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long n = random.nextLong() >>> (1 + random.nextInt(32));
+            Assert.assertEquals("n = " + n, BigInteger.valueOf(n).isProbablePrime(50), PrimalityTester.isPrime(n));
+        }
+        Assert.assertTrue(PrimalityTester.isPrime(9_223_372_036_854_775_783L)); // largest prime below 2^63
+        Assert.assertFalse(PrimalityTester.isPrime(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testLargeSemiprimes() {
+        long p = 3_037_000_493L; // largest prime below sqrt(2^63)
+        Assert.assertTrue(PrimalityTester.isPrime(p));
+        Assert.assertFalse(PrimalityTester.isPrime(p * p));
+        Assert.assertFalse(PrimalityTester.isPrime(p * 3_036_999_941L));
+    }
+}
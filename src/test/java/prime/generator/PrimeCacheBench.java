@@ -0,0 +1,155 @@
+package prime.generator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import prime.ConcurrentRangePrimeCache;
+import prime.PrimeController;
+
+/**
+ * Throughput test bench for concurrent requests served by {@link PrimeController} with
+ * {@link ConcurrentRangePrimeCache}, i.e. the load of PrimeControllerTest.testConcurrentUpdates.
+ *
+ * 'Mixed' benchmarks request random ranges of the same area, so the requests are a mix of cache hits, partial hits
+ * and updates merging the new ranges with the cached ones. 'Hits' benchmarks only read the cache filled in advance.
+ * 'Fragmented' benchmarks measure the latency of cache lookups depending on the number of cached ranges: hits within
+ * a cached range, partial hits spanning the end of a cached range and the following gap, and misses within a gap.
+ */
+public class PrimeCacheBench {
+
+    private static final int TEST_AREA = 10_000_000;
+    private static final int TEST_MAX_RANGE = 100_000;
+
+    /**
+     * Controller shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Controller {
+        public PrimeController controller;
+
+        @Setup
+        public void setup() {
+            controller = new PrimeController(new SieveOfEratosthenesSegmentedPrimeGenerator(),
+                    new ConcurrentRangePrimeCache(), Runtime.getRuntime().availableProcessors(), 1000);
+        }
+    }
+
+    /**
+     * Controller shared by all benchmark threads with all ranges of the test area cached.
+     */
+    @State(Scope.Benchmark)
+    public static class CachedController extends Controller {
+        @Setup
+        @Override
+        public void setup() {
+            super.setup();
+            controller.getPrimes("1", String.valueOf(TEST_AREA + TEST_MAX_RANGE)).join();
+        }
+    }
+
+    /**
+     * Cache with the given number of disjoint ranges used to measure the latency of hits with fragmented cache.
+     */
+    @State(Scope.Benchmark)
+    public static class FragmentedCache {
+        @Param({"10", "1000", "100000"})
+        public int ranges;
+
+        public ConcurrentRangePrimeCache cache;
+        public long step;
+
+        @Setup
+        public void setup() {
+            cache = new ConcurrentRangePrimeCache();
+            step = TEST_AREA / ranges;
+            PrimeSequence primes = new SieveOfEratosthenesSegmentedPrimeGenerator().generate(1, TEST_AREA);
+            for (long from = 1; from < TEST_AREA; from += step)
+                cache.addAll(from, from + step / 2, primes.subSequence(from, from + step / 2));
+        }
+    }
+
+    /*
+     * ============================== HOW TO RUN THIS TEST: ====================================
+     *
+     * Please make sure to build the benchmarks first. From the project directory run:
+     *
+     *    mvn -P benchmarks clean package
+     *
+     * You can run this test via the command line:
+     *    $ java -jar target/benchmarks.jar PrimeCacheBench -wi 5 -i 5 -f 1 -prof gc
+     */
+
+    public static void main(String[] args) throws RunnerException {
+        Options opts = new OptionsBuilder()
+                .include(PrimeCacheBench.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(opts).run();
+    }
+
+    @Benchmark
+    @Threads(8)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object runMixed(Controller state) {
+        return request(state.controller);
+    }
+
+    @Benchmark
+    @Threads(8)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object runHits(CachedController state) {
+        return request(state.controller);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object runFragmentedHits(FragmentedCache state) {
+        long from = ThreadLocalRandom.current().nextInt(state.ranges) * state.step + 1;
+        return state.cache.getPrimes(from, from + Math.min(state.step / 2, 1000));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object runFragmentedPartialHits(FragmentedCache state) {
+        long cachedTo = ThreadLocalRandom.current().nextInt(state.ranges) * state.step + 1 + state.step / 2;
+        long width = Math.min(state.step / 2, 1000);
+        return state.cache.lookup(cachedTo - width / 2, cachedTo + width / 2);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object runFragmentedMisses(FragmentedCache state) {
+        long gapFrom = ThreadLocalRandom.current().nextInt(state.ranges) * state.step + 2 + state.step / 2;
+        return state.cache.lookup(gapFrom, gapFrom + Math.min(state.step / 2 - 2, 1000));
+    }
+
+    private static Object request(PrimeController controller) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long from = random.nextInt(TEST_AREA) + 1;
+        long to = from + random.nextInt(TEST_MAX_RANGE) + 10;
+        return controller.getPrimes(String.valueOf(from), String.valueOf(to)).join();
+    }
+}
@@ -0,0 +1,140 @@
+package prime.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link PrimeConstellations}.
+ */
+public class PrimeConstellationsTest {
+    private static final int[] TWINS = {0, 2};
+    private static final int[] TRIPLETS = {0, 2, 6};
+
+    @Test
+    public void testKnownValues() {
+        Assert.assertEquals(PrimeSequence.of(3, 5, 11, 17, 29, 41, 59, 71),
+                PrimeConstellations.findTuples(1, 100, TWINS, 100));
+        Assert.assertEquals(PrimeSequence.of(5, 11, 17, 41), PrimeConstellations.findTuples(1, 100, TRIPLETS, 100));
+        Assert.assertEquals(8169, PrimeConstellations.countTuples(1, 1_000_000, TWINS));
+        Assert.assertEquals(3_424_506, PrimeConstellations.countTuples(1, 1_000_000_000, TWINS));
+
+        PrimeGap gap = PrimeConstellations.maxGap(1, 1_000_000);
+        Assert.assertEquals(492_113, gap.getStart());
+        Assert.assertEquals(114, gap.getLength());
+        Assert.assertEquals(282, PrimeConstellations.maxGap(1, 1_000_000_000).getLength());
+        Assert.assertNull(PrimeConstellations.maxGap(24, 28));
+    }
+
+    @Test
+    public void testRandomRanges() {
+        Random random = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            long from = random.nextInt(10_000_000);
+            long to = from + random.nextInt(3_000_000);
+            PrimeSequence primes = new SieveOfEratosthenesSegmentedPrimeGenerator().generate(from, to + 6);
+            assertScan(primes, from, to);
+        }
+    }
+
+    @Test
+    public void testChunkBoundaries() {
+        // wider than a single chunk, so the matches and gaps at the chunk boundaries must be combined
+        long from = 1_000_000_000_000L;
+        long to = from + 150_000_000L;
+        assertScan(new SieveOfEratosthenesParallelSegmentedPrimeGenerator().generate(from, to + 6), from, to);
+    }
+
+    @Test
+    public void testFirstTuplesOnly() {
+        long from = 1_000_000_000_000_000L;
+        // only the windows up to the 10th twin are sieved
+        PrimeSequence twins = PrimeConstellations.findTuples(from, Long.MAX_VALUE, TWINS, 10);
+        Assert.assertEquals(10, twins.size());
+        for (int i = 0; i < twins.size(); i++) {
+            Assert.assertTrue(PrimalityTester.isPrime(twins.get(i)));
+            Assert.assertTrue(PrimalityTester.isPrime(twins.get(i) + 2));
+        }
+        Assert.assertEquals(10, PrimeConstellations.countTuples(from, twins.get(9), TWINS));
+    }
+
+    @Test
+    public void testScanWidth() {
+        long limit = PrimeConstellations.MAX_SCAN_WIDTH;
+        try {
+            PrimeConstellations.countTuples(0, limit, TWINS);
+            Assert.fail("Range should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            PrimeConstellations.maxGap(Long.MIN_VALUE, limit);
+            Assert.fail("Range should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // the k-tuples found are not limited by the width
+        Assert.assertEquals(3, PrimeConstellations.findTuples(limit, Long.MAX_VALUE, TWINS, 3).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncorrectPattern() {
+        PrimeConstellations.countTuples(1, 100, new int[] {0, 6, 2});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInadmissiblePattern() {
+        // one of p, p + 2, p + 4 is divisible by 3
+        PrimeConstellations.findTuples(1, 100, new int[] {0, 2, 4}, 100);
+    }
+
+    @Test
+    public void testExecutor() {
+        // the chunks are scanned on the given executor, including the ones rejected by a saturated executor
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1));
+        try {
+            long from = 1_000_000_000L;
+            long to = from + 300_000_000L;
+            Assert.assertEquals(PrimeConstellations.countTuples(from, to, TWINS),
+                    PrimeConstellations.countTuples(from, to, TWINS, executor));
+            Assert.assertEquals(PrimeConstellations.maxGap(from, to).getStart(),
+                    PrimeConstellations.maxGap(from, to, executor).getStart());
+            Assert.assertTrue(executor.getCompletedTaskCount() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Compare the scans of range [from..to] with the given primes in range [from..to + 6].
+     */
+    private static void assertScan(PrimeSequence primes, long from, long to) {
+        PrimeSequence twins = new PrimeSequence();
+        long triplets = 0;
+        PrimeGap max = null;
+        for (int i = 0; i < primes.size() && primes.get(i) <= to; i++) {
+            long p = primes.get(i);
+            boolean twin = i + 1 < primes.size() && primes.get(i + 1) == p + 2;
+            if (twin)
+                twins.add(p);
+            if (twin && i + 2 < primes.size() && primes.get(i + 2) == p + 6)
+                triplets++;
+            if (i + 1 < primes.size() && primes.get(i + 1) <= to
+                    && (max == null || primes.get(i + 1) - p > max.getLength()))
+                max = new PrimeGap(p, primes.get(i + 1));
+        }
+
+        String range = "range [" + from + ".." + to + "]";
+        Assert.assertEquals(range, twins, PrimeConstellations.findTuples(from, to, TWINS, Integer.MAX_VALUE));
+        Assert.assertEquals(range, twins.size(), PrimeConstellations.countTuples(from, to, TWINS));
+        Assert.assertEquals(range, triplets, PrimeConstellations.countTuples(from, to, TRIPLETS));
+        PrimeGap gap = PrimeConstellations.maxGap(from, to);
+        Assert.assertEquals(range, max.getStart(), gap.getStart());
+        Assert.assertEquals(range, max.getEnd(), gap.getEnd());
+    }
+}
@@ -0,0 +1,109 @@
+package prime.generator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import prime.ConcurrentRangePrimeCache;
+import prime.PrimeController;
+
+/**
+ * Throughput test bench for concurrent requests of all endpoints of {@link PrimeController}, including
+ * the asynchronous execution of the requests on the compute executor.
+ *
+ * Requests are spread over a wide area starting at the given offset, so most of them are cache misses; the cache
+ * itself is measured by {@link PrimeCacheBench}. The number of concurrent clients can be changed with '-t'.
+ */
+@Threads(8)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PrimeControllerBench {
+
+    private static final long TEST_AREA = 1_000_000_000L;
+    private static final int TEST_MAX_RANGE = 100_000;
+    private static final int TEST_PAGE_SIZE = 1000;
+
+    /**
+     * Controller shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Controller {
+        @Param({"1", "1000000000000"})
+        public long offset;
+
+        public PrimeController controller;
+
+        @Setup
+        public void setup() {
+            controller = new PrimeController(new SieveOfEratosthenesSegmentedPrimeGenerator(),
+                    new ConcurrentRangePrimeCache(), Runtime.getRuntime().availableProcessors(), 1000);
+        }
+
+        String randomFrom() {
+            return String.valueOf(offset + ThreadLocalRandom.current().nextLong(TEST_AREA));
+        }
+
+        String randomTo(String from) {
+            return String.valueOf(Long.parseLong(from) + ThreadLocalRandom.current().nextInt(TEST_MAX_RANGE) + 10);
+        }
+    }
+
+    /*
+     * ============================== HOW TO RUN THIS TEST: ====================================
+     *
+     * Please make sure to build the benchmarks first. From the project directory run:
+     *
+     *    mvn -P benchmarks clean package
+     *
+     * You can run this test via the command line:
+     *    $ java -jar target/benchmarks.jar PrimeControllerBench -wi 5 -i 5 -f 1 -t 16 -prof gc
+     */
+
+    public static void main(String[] args) throws RunnerException {
+        Options opts = new OptionsBuilder()
+                .include(PrimeControllerBench.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(opts).run();
+    }
+
+    @Benchmark
+    public Object runGetPrimes(Controller state) {
+        String from = state.randomFrom();
+        return state.controller.getPrimes(from, state.randomTo(from)).join();
+    }
+
+    @Benchmark
+    public Object runGetPrimePage(Controller state) {
+        String from = state.randomFrom();
+        return state.controller.getPrimePage(from, String.valueOf(Long.MAX_VALUE), TEST_PAGE_SIZE, null).join();
+    }
+
+    @Benchmark
+    public Object runCountPrimes(Controller state) {
+        String from = state.randomFrom();
+        return state.controller.countPrimes(from, state.randomTo(from)).join();
+    }
+
+    @Benchmark
+    public Object runNthPrime(Controller state) {
+        return state.controller.nthPrime(String.valueOf(ThreadLocalRandom.current().nextLong(TEST_AREA) + 1)).join();
+    }
+}
@@ -1,13 +1,28 @@
 package prime.generator;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import prime.ConcurrentRangePrimeCache;
 import prime.PrimeController;
+import prime.PrimeDeltaReader;
+import prime.PrimeGapResult;
+import prime.PrimeMetrics;
+import prime.PrimePageResult;
 import prime.PrimeResult;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.*;
 
@@ -34,9 +49,9 @@ public class PrimeControllerTest {
             long from = random.nextInt(100_000) + 1;
             long to = from + random.nextInt(1_000_000) + 10;
             Future<?> future = executorService.submit(() -> {
-                PrimeResult primes = controller.getPrimes(String.valueOf(from), String.valueOf(to));
-                for (Long n : primes.getPrimes()) {
-                    Assert.assertTrue(PrimeGeneratorTestBase.isPrime(n));
+                PrimeResult primes = controller.getPrimes(String.valueOf(from), String.valueOf(to)).join();
+                for (int j = 0; j < primes.getPrimes().size(); j++) {
+                    Assert.assertTrue(PrimeGeneratorTestBase.isPrime(primes.getPrimes().get(j)));
                 }
             });
             futures.add(future);
@@ -49,4 +64,352 @@ public class PrimeControllerTest {
             }
         }
     }
+
+    @Test
+    public void testJsonSerialization() throws Exception {
+        PrimeResult primes = controller.getPrimes("1", "20").join();
+        String json = new ObjectMapper().writeValueAsString(primes);
+        Assert.assertEquals("{\"primes\":[2,3,5,7,11,13,17,19]}", json);
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        // the second stream is decoded from the cache filled by the expected result
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            controller.streamPrimes("1000", "3000000").getBody().writeTo(out);
+            JsonNode streamed = new ObjectMapper().readTree(out.toByteArray()).get("primes");
+
+            PrimeResult expected = controller.getPrimes("1000", "3000000").join();
+            Assert.assertEquals(expected.getPrimes().size(), streamed.size());
+            for (int i = 0; i < streamed.size(); i++) {
+                Assert.assertEquals(expected.getPrimes().get(i), streamed.get(i).asLong());
+            }
+        }
+    }
+
+    @Test
+    public void testPrimeDeltas() throws Exception {
+        for (boolean stream : new boolean[] {false, true}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            controller.getPrimeDeltas("1000000000000", "1000000200000", stream).join().getBody().writeTo(out);
+            long[] decoded = new PrimeDeltaReader(new ByteArrayInputStream(out.toByteArray())).readAll();
+
+            PrimeResult expected = controller.getPrimes("1000000000000", "1000000200000").join();
+            Assert.assertTrue("must be much smaller than JSON", out.size() < 2 * decoded.length);
+            Assert.assertEquals(expected.getPrimes(), PrimeSequence.of(decoded));
+        }
+    }
+
+    @Test
+    public void testCountPrimes() {
+        Assert.assertEquals(controller.getPrimes("1000", "200000").join().getPrimes().size(),
+                controller.countPrimes("1000", "200000").join().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountPrimesTooWide() {
+        // beyond the analytic limit the whole range would be sieved
+        controller.countPrimes("1", "1000000000000000");
+    }
+
+    @Test
+    public void testPartialCacheHits() {
+        PrimeGenerator generator = new SieveOfEratosthenesSegmentedPrimeGenerator();
+        controller.getPrimes("10000", "20000").join();
+        controller.getPrimes("30000", "40000").join();
+        Assert.assertEquals(generator.generate(5000, 50000), controller.getPrimes("5000", "50000").join().getPrimes());
+        Assert.assertEquals(generator.generate(1, 60000), controller.getPrimes("1", "60000").join().getPrimes());
+    }
+
+    @Test
+    public void testRejection() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        PrimeGenerator blockingGenerator = new SieveOfEratosthenesSegmentedPrimeGenerator() {
+            @Override
+            public PrimeSequence generate(long from, long limit) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.generate(from, limit);
+            }
+        };
+        PrimeController saturated = new PrimeController(blockingGenerator, new ConcurrentRangePrimeCache(), 1, 1);
+        List<CompletableFuture<PrimeResult>> accepted = new ArrayList<>();
+        accepted.add(saturated.getPrimes("1", "100"));
+        accepted.add(saturated.getPrimes("1", "100"));
+        try {
+            saturated.getPrimes("1", "100");
+            Assert.fail("Request should be rejected");
+        } catch (RejectedExecutionException e) {
+            ResponseEntity<Void> response = saturated.handleRejection(e);
+            Assert.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+            Assert.assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        }
+        release.countDown();
+        for (CompletableFuture<PrimeResult> future : accepted)
+            Assert.assertEquals(25, future.get(5, TimeUnit.SECONDS).getPrimes().size());
+    }
+
+    @Test
+    public void testCancellation() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        PrimeGenerator slowGenerator = new SieveOfEratosthenesSegmentedPrimeGenerator() {
+            @Override
+            public PrimeSequence generate(long from, long limit) {
+                started.countDown();
+                // sieves for minutes unless interrupted
+                PrimeCounter.count(1_000_000_000_000_000L, 1_000_000_000_000_000L + 9_000_000_000L);
+                return super.generate(from, limit);
+            }
+        };
+        PrimeController single = new PrimeController(slowGenerator, new ConcurrentRangePrimeCache(), 1, 1);
+        CompletableFuture<PrimeResult> timedOut = single.getPrimes("1", "100");
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        // the timeout of a request cancels its computation, which frees the only compute thread for the next one
+        timedOut.cancel(true);
+        Assert.assertTrue(timedOut.isCancelled());
+        Assert.assertEquals(25, single.countPrimes("1", "100").get(5, TimeUnit.SECONDS).getCount());
+        single.shutdown();
+    }
+
+    @Test
+    public void testPaging() {
+        for (int pageSize : new int[] {100, 1000, 100_000}) {
+            PrimeSequence primes = new PrimeSequence();
+            String cursor = null;
+            int pages = 0;
+            do {
+                PrimePageResult page = controller.getPrimePage("1000", "200000", pageSize, cursor).join();
+                Assert.assertTrue(page.getPrimes().size() <= pageSize);
+                primes.addAll(page.getPrimes());
+                cursor = page.getNextCursor();
+                pages++;
+            } while (cursor != null);
+            PrimeSequence expected = new SieveOfEratosthenesSegmentedPrimeGenerator().generate(1000, 200000);
+            Assert.assertEquals(expected, primes);
+            // the last page may be empty if the range ends right after a full page
+            Assert.assertTrue(pages * pageSize >= expected.size() && (pages - 1) * pageSize <= expected.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPagingIncorrectCursor() {
+        controller.getPrimePage("1000", "200000", 10, Long.toString(999, Character.MAX_RADIX));
+    }
+
+    @Test
+    public void testBatch() {
+        long[][] ranges = {{5000, 6000}, {1, 100}, {5500, 7000}, {10_000_000, 10_001_000}, {50, 60}, {97, 97}, {8, 10}};
+        List<PrimeResult> results = controller.getPrimeBatch(ranges).join().getResults();
+
+        Assert.assertEquals(ranges.length, results.size());
+        for (int i = 0; i < ranges.length; i++) {
+            Assert.assertEquals(new SieveOfEratosthenesSegmentedPrimeGenerator().generate(ranges[i][0], ranges[i][1]),
+                    results.get(i).getPrimes());
+        }
+        // the nearby ranges are merged, so only two ranges are generated and cached
+        controller.getPrimeBatch(new long[][] {{2000, 3000}, {10_000_500, 10_000_600}}).join();
+        Map<String, Number> metrics = new HashMap<>();
+        for (Metric<?> metric : new PrimeMetrics(controller).metrics())
+            metrics.put(metric.getName(), metric.getValue());
+        Assert.assertEquals(2L, metrics.get("prime.generator." + PlanningPrimeGenerator.class.getSimpleName()
+                + ".requests"));
+        Assert.assertEquals(2L, metrics.get("prime.cache.misses"));
+        Assert.assertEquals(2L, metrics.get("prime.cache.hits"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchIncorrectRange() {
+        controller.getPrimeBatch(new long[][] {{1, 100}, {200, 100}});
+    }
+
+    @Test
+    public void testBatchTooWide() {
+        // the width is checked before the request is submitted, so the batch is rejected with 400 status
+        long[][][] batches = {{{0, 100_000_000}}, {{1, 60_000_000}, {1_000_000_000, 1_050_000_000}},
+                {{Long.MIN_VALUE, Long.MAX_VALUE}}, {{1, 100}, {0, Long.MAX_VALUE}}};
+        for (long[][] batch : batches) {
+            try {
+                controller.getPrimeBatch(batch);
+                Assert.fail("Batch should be rejected: " + batch.length + " ranges from " + batch[0][0]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        // ranges below zero contain no primes and do not count
+        List<PrimeResult> results = controller.getPrimeBatch(new long[][] {{Long.MIN_VALUE, 1000}, {500, 2000}}).join()
+                .getResults();
+        Assert.assertEquals(new SieveOfEratosthenesSegmentedPrimeGenerator().generate(500, 2000),
+                results.get(1).getPrimes());
+    }
+
+    @Test
+    public void testPrimeTuples() {
+        PrimeSequence twins = new PrimeSequence();
+        String cursor = null;
+        do {
+            PrimePageResult page = controller.getPrimeTuples("1000", "200000", "0,2", 100, cursor).join();
+            Assert.assertTrue(page.getPrimes().size() <= 100);
+            twins.addAll(page.getPrimes());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        Assert.assertEquals(PrimeConstellations.findTuples(1000, 200000, new int[] {0, 2}, Integer.MAX_VALUE), twins);
+        Assert.assertEquals(twins.size(), controller.countPrimeTuples("1000", "200000", "0,2").join().getCount());
+        Assert.assertEquals(PrimeSequence.of(5, 11, 17, 41),
+                controller.getPrimeTuples("1", "100", "0, 2, 6", 1000, null).join().getPrimes());
+    }
+
+    @Test
+    public void testPrimeTuplesIncorrectPattern() {
+        // the pattern is checked before the request is submitted, so it is rejected with 400 status
+        for (String pattern : new String[] {"0,1,2", "0,2,4", "2,4", "0,6,2"}) {
+            try {
+                controller.countPrimeTuples("1", "100", pattern);
+                Assert.fail("Pattern should be rejected: " + pattern);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                controller.getPrimeTuples("1", "100", pattern, 10, null);
+                Assert.fail("Pattern should be rejected: " + pattern);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testPrimeTuplesScanWidth() {
+        // prime octuplets are too sparse to fill a page, so the page ends where its scan is bounded
+        String octuplets = "0,2,6,8,12,18,20,26";
+        PrimePageResult page = controller.getPrimeTuples("1", "3000000000", octuplets, 1_000_000, null).join();
+        Assert.assertEquals(PrimeConstellations.findTuples(1, 1_000_000_000, new int[] {0, 2, 6, 8, 12, 18, 20, 26},
+                Integer.MAX_VALUE), page.getPrimes());
+        Assert.assertEquals(1_000_000_000L, Long.parseLong(page.getNextCursor(), Character.MAX_RADIX));
+
+        // a full page ends at its last k-tuple, the last page has no cursor
+        page = controller.getPrimeTuples("1", "100", "0,2", 3, null).join();
+        Assert.assertEquals(PrimeSequence.of(3, 5, 11), page.getPrimes());
+        page = controller.getPrimeTuples("1", "100", "0,2", 5, page.getNextCursor()).join();
+        Assert.assertEquals(PrimeSequence.of(17, 29, 41, 59, 71), page.getPrimes());
+        Assert.assertNull(controller.getPrimeTuples("1", "100", "0,2", 5, page.getNextCursor()).join().getNextCursor());
+    }
+
+    @Test
+    public void testScanTooWide() {
+        // the width is checked before the request is submitted, so the range is rejected with 400 status
+        String to = String.valueOf(PrimeConstellations.MAX_SCAN_WIDTH);
+        try {
+            controller.countPrimeTuples("0", to, "0,2");
+            Assert.fail("Range should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            controller.maxPrimeGap("-5", to);
+            Assert.fail("Range should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMaxPrimeGap() {
+        PrimeGapResult gap = controller.maxPrimeGap("1", "1000000").join();
+        Assert.assertEquals(492_113L, gap.getStart().longValue());
+        Assert.assertEquals(492_227L, gap.getEnd().longValue());
+        Assert.assertEquals(114L, gap.getLength().longValue());
+        Assert.assertNull(controller.maxPrimeGap("24", "28").join().getLength());
+    }
+
+    @Test
+    public void testNthPrime() {
+        Assert.assertEquals(2, controller.nthPrime("1").join().getPrime());
+        Assert.assertEquals(7919, controller.nthPrime("1000").join().getPrime());
+        Assert.assertEquals(22_801_763_489L, controller.nthPrime("1000000000").join().getPrime());
+
+        PrimeSequence primes = controller.nthPrimes("999999990", "1000000010").join().getPrimes();
+        Assert.assertEquals(21, primes.size());
+        Assert.assertEquals(22_801_763_489L, primes.get(10));
+        Assert.assertEquals(new SieveOfEratosthenesSegmentedPrimeGenerator().generate(primes.get(0), primes.get(20)),
+                primes);
+    }
+
+    @Test
+    public void testNthPrimeIncorrectIndex() {
+        // the indexes are checked before the request is submitted, so they are rejected with 400 status
+        String[][] ranges = {{"0", "10"}, {"-5", "10"}, {String.valueOf(PrimeCounter.MAX_NTH_PRIME),
+                String.valueOf(PrimeCounter.MAX_NTH_PRIME + 1)}, {"1", "1000001"}};
+        for (String[] range : ranges) {
+            try {
+                controller.nthPrimes(range[0], range[1]);
+                Assert.fail("Range should be rejected: " + range[0] + ".." + range[1]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        for (String n : new String[] {"0", "-1", String.valueOf(PrimeCounter.MAX_NTH_PRIME + 1)}) {
+            try {
+                controller.nthPrime(n);
+                Assert.fail("Index should be rejected: " + n);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        controller.getPrimes("1000", "2000").join();
+        controller.getPrimes("1000", "2000").join();
+        // only the gap is generated
+        controller.getPrimes("1500", "3000").join();
+        controller.getPrimes("1000000", "1100000").join();
+
+        Map<String, Number> metrics = new HashMap<>();
+        for (Metric<?> metric : new PrimeMetrics(controller).metrics())
+            metrics.put(metric.getName(), metric.getValue());
+        String generator = "prime.generator." + PlanningPrimeGenerator.class.getSimpleName();
+        Assert.assertEquals(3L, metrics.get(generator + ".requests"));
+        PrimeGenerator expected = new SieveOfEratosthenesSegmentedPrimeGenerator();
+        long primes = expected.generate(1000, 3000).size() + expected.generate(1_000_000, 1_100_000).size();
+        Assert.assertEquals(primes, metrics.get(generator + ".primes"));
+        Assert.assertTrue(metrics.get(generator + ".latency.p99").doubleValue() > 0);
+        long planned = 0;
+        double plannedMax = 0;
+        for (String engine : new String[] {"sieve", "segmentedSieve", "parallelSieve", "primalityTest"}) {
+            planned += metrics.get("prime.planner." + engine + ".requests").longValue();
+            plannedMax = Math.max(plannedMax, metrics.get("prime.planner." + engine + ".latency.max").doubleValue());
+        }
+        Assert.assertEquals(3, planned);
+        Assert.assertTrue(plannedMax > 0);
+        Assert.assertEquals(1L, metrics.get("prime.cache.hits"));
+        Assert.assertEquals(1L, metrics.get("prime.cache.partialHits"));
+        Assert.assertEquals(2L, metrics.get("prime.cache.misses"));
+        Assert.assertTrue(metrics.get("prime.cache.size").longValue() > 0);
+        Assert.assertEquals(0L, metrics.get("prime.cache.evictions"));
+        Assert.assertEquals(0L, metrics.get("prime.cache.rejections"));
+        Assert.assertEquals(0, metrics.get("prime.requests.queued"));
+        Assert.assertEquals(3L, metrics.get("prime.inflight.computations"));
+    }
+
+    @Test
+    public void testNarrowHighOffsetWindow() {
+        long from = 2_000_000_000_000_000_000L;
+        long to = from + 100;
+        PrimeSequence primes = controller.getPrimes(String.valueOf(from), String.valueOf(to)).join().getPrimes();
+
+        // only the requested window is generated, not a whole block around it
+        PrimeSequence expected = new MillerRabinParallelPrimeGenerator().generate(from, to);
+        Assert.assertEquals(expected, primes);
+        Map<String, Number> metrics = new HashMap<>();
+        for (Metric<?> metric : new PrimeMetrics(controller).metrics())
+            metrics.put(metric.getName(), metric.getValue());
+        Assert.assertEquals((long)expected.size(),
+                metrics.get("prime.generator." + PlanningPrimeGenerator.class.getSimpleName() + ".primes"));
+        Assert.assertEquals(1L, metrics.get("prime.planner.primalityTest.requests"));
+    }
 }
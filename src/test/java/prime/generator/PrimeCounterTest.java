@@ -0,0 +1,90 @@
+package prime.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tests for {@link PrimeCounter}.
+ */
+public class PrimeCounterTest {
+
+    @Test
+    public void testPi() {
+        Assert.assertEquals(0, PrimeCounter.pi(1));
+        Assert.assertEquals(1, PrimeCounter.pi(2));
+        Assert.assertEquals(4, PrimeCounter.pi(10));
+        Assert.assertEquals(25, PrimeCounter.pi(100));
+        Assert.assertEquals(78_498, PrimeCounter.pi(1_000_000));
+        Assert.assertEquals(50_847_534, PrimeCounter.pi(1_000_000_000));
+        Assert.assertEquals(37_607_912_018L, PrimeCounter.pi(1_000_000_000_000L));
+    }
+
+    @Test
+    public void testCountBySieve() {
+        Assert.assertEquals(50_847_534, PrimeCounter.countBySieve(1, 1_000_000_000));
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            long from = random.nextInt(10_000_000);
+            long to = from + random.nextInt(1_000_000);
+            Assert.assertEquals(new SieveOfEratosthenesSegmentedPrimeGenerator().generate(from, to).size(),
+                    PrimeCounter.countBySieve(from, to));
+        }
+    }
+
+    @Test
+    public void testCount() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5; i++) {
+            long from = (long)(random.nextDouble() * 100_000_000_000L);
+            long to = from + (long)(random.nextDouble() * 1_000_000_000L);
+            Assert.assertEquals(PrimeCounter.pi(to) - PrimeCounter.pi(from - 1), PrimeCounter.count(from, to));
+        }
+    }
+
+    @Test
+    public void testSieveWidthLimit() {
+        // ranges starting far below zero are counted from zero
+        Assert.assertEquals(25, PrimeCounter.count(Long.MIN_VALUE, 100));
+        long from = PrimeCounter.MAX_ANALYTIC_LIMIT + 1;
+        Assert.assertEquals(PrimeCounter.countBySieve(from, from + 1_000_000),
+                PrimeCounter.count(from, from + 1_000_000));
+        PrimeCounter.checkRange(from, from + PrimeCounter.MAX_SIEVE_WIDTH - 1);
+
+        for (long[] range : new long[][] {{1, 1_000_000_000_000_000L}, {Long.MIN_VALUE, Long.MAX_VALUE},
+                {from, from + PrimeCounter.MAX_SIEVE_WIDTH}}) {
+            try {
+                PrimeCounter.count(range[0], range[1]);
+                Assert.fail("Range must be rejected: " + range[0] + ".." + range[1]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testInterruption() {
+        // the sieve stops at the next segment once the thread is interrupted, e.g. by a cancelled request
+        Thread.currentThread().interrupt();
+        try {
+            PrimeCounter.count(1_000_000_000_000_000L, 1_000_000_000_000_000L + 1_000_000_000L);
+            Assert.fail("Count should be cancelled");
+        } catch (CancellationException e) {
+            // expected
+        } finally {
+            Assert.assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void testNthPrime() {
+        PrimeSequence primes = new SieveOfEratosthenesSegmentedPrimeGenerator().generate(200_000);
+        for (int n = 1; n <= primes.size(); n += n < 1000 ? 1 : 97)
+            Assert.assertEquals(primes.get(n - 1), PrimeCounter.nthPrime(n));
+        Assert.assertEquals(15_485_863, PrimeCounter.nthPrime(1_000_000));
+        Assert.assertEquals(22_801_763_489L, PrimeCounter.nthPrime(1_000_000_000));
+        Assert.assertEquals(252_097_800_623L, PrimeCounter.nthPrime(10_000_000_000L));
+    }
+}
@@ -3,6 +3,7 @@ package prime.generator;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -20,7 +21,8 @@ import java.util.stream.IntStream;
  * The tests include checking the first 1000L primes and primes generated
  * in range [90L,000L..100L,000L] against known primes in these ranges.
  *
- * We also test each 10Lth prime in a larger range using a trial division method.
+ * We also test each 10Lth prime in a larger range using a trial division method, and every window
+ * [from..to] up to 200, so the edges of the windows are handled correctly.
  *
  */
 public abstract class PrimeGeneratorTestBase {
@@ -244,10 +246,25 @@ public abstract class PrimeGeneratorTestBase {
     public void testEach10LthPrime() {
         int limit = 10_000_000;
         PrimeGenerator generator = getPrimeGenerator();
-        List<Long> list = generator.findAll(limit);
+        PrimeSequence primes = generator.generate(limit);
 
-        for (int i = 0; i < list.size(); i += 10) {
-            Assert.assertTrue("number must be prime", isPrime(list.get(i)));
+        for (int i = 0; i < primes.size(); i += 10) {
+            Assert.assertTrue("number must be prime", isPrime(primes.get(i)));
+        }
+    }
+
+    @Test
+    public void testSmallWindows() {
+        PrimeGenerator generator = getPrimeGenerator();
+        PrimeSequence primes = new PrimeSequence();
+        for (long n = 0; n <= 200; n++)
+            if (BigInteger.valueOf(n).isProbablePrime(30))
+                primes.add(n);
+        for (long from = 0; from <= 200; from++) {
+            for (long to = Math.max(from, 1); to <= 200; to++) {
+                Assert.assertEquals("range [" + from + ".." + to + "]", primes.subSequence(from, to),
+                        generator.generate(from, to));
+            }
         }
     }
 
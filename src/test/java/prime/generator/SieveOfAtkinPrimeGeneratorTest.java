@@ -1,5 +1,8 @@
 package prime.generator;
 
+import org.junit.Assert;
+import org.junit.Test;
+
 /**
  * Tests for {@link SieveOfAtkinPrimeGenerator}.
  */
@@ -8,4 +11,22 @@ public class SieveOfAtkinPrimeGeneratorTest extends PrimeGeneratorTestBase {
     protected PrimeGenerator getPrimeGenerator() {
         return new SieveOfAtkinPrimeGenerator();
     }
+
+    @Test
+    public void testMultipleSegments() {
+        long limit = 3 * SieveOfAtkinPrimeGenerator.SEGMENT_BYTES * 30L + 12345;
+        Assert.assertEquals(new SieveOfEratosthenesSegmentedPrimeGenerator().generate(limit),
+                getPrimeGenerator().generate(limit));
+    }
+
+    @Test
+    public void testHighOffsetWindows() {
+        PrimeGenerator generator = getPrimeGenerator();
+        PrimeGenerator expected = new MillerRabinParallelPrimeGenerator();
+        for (long from : new long[] {Integer.MAX_VALUE - 1000L, 1_000_000_000_000L, 1_000_000_000_000_000L}) {
+            long to = from + 10_000;
+            Assert.assertEquals("range [" + from + ".." + to + "]", expected.generate(from, to),
+                    generator.generate(from, to));
+        }
+    }
 }
@@ -0,0 +1,23 @@
+package prime.generator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SieveOfEratosthenesParallelSegmentedPrimeGenerator}.
+ */
+public class SieveOfEratosthenesParallelSegmentedPrimeGeneratorTest extends PrimeGeneratorTestBase {
+    @Override
+    protected PrimeGenerator getPrimeGenerator() {
+        return new SieveOfEratosthenesParallelSegmentedPrimeGenerator(4);
+    }
+
+    @Test
+    public void testHighOffsetWindow() {
+        long from = 1_000_000_000_000L;
+        long to = from + 10_000_000L;
+        PrimeSequence primes = getPrimeGenerator().generate(from, to);
+
+        Assert.assertEquals(new SieveOfEratosthenesSegmentedPrimeGenerator().generate(from, to), primes);
+    }
+}
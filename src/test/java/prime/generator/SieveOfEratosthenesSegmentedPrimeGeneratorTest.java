@@ -1,5 +1,10 @@
 package prime.generator;
 
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
 /**
  * Tests for {@link SieveOfEratosthenesSegmentedPrimeGenerator}.
  */
@@ -8,4 +13,35 @@ public class SieveOfEratosthenesSegmentedPrimeGeneratorTest extends PrimeGenerat
     protected PrimeGenerator getPrimeGenerator() {
         return new SieveOfEratosthenesSegmentedPrimeGenerator();
     }
+
+    @Test
+    public void testHighOffsetWindow() {
+        long from = 1_000_000_000_000L;
+        long to = from + 100_000L;
+        PrimeGenerator generator = getPrimeGenerator();
+        PrimeSequence primes = generator.generate(from, to);
+
+        Assert.assertTrue("must produce at least one prime", !primes.isEmpty());
+        int idx = 0;
+        for (long n = from; n <= to; n++) {
+            if (BigInteger.valueOf(n).isProbablePrime(30)) {
+                Assert.assertEquals(n, primes.get(idx++));
+            }
+        }
+        Assert.assertEquals(primes.size(), idx);
+    }
+
+    @Test
+    public void testSegmentChunks() {
+        PrimeGenerator generator = getPrimeGenerator();
+        PrimeSequence chunked = new PrimeSequence();
+        int[] chunks = new int[1];
+        generator.generate(2, 1_000_000, chunk -> {
+            chunked.addAll(chunk);
+            chunks[0]++;
+        });
+
+        Assert.assertTrue("must produce multiple chunks", chunks[0] > 1);
+        Assert.assertEquals(generator.generate(2, 1_000_000), chunked);
+    }
 }